@@ -38,11 +38,13 @@ import com.android.pump.db.Album;
 import com.android.pump.db.Artist;
 import com.android.pump.db.Audio;
 import com.android.pump.db.MediaDb;
+import com.android.pump.ui.PaletteTinter;
 import com.android.pump.util.Globals;
 
 @UiThread
 public class AlbumDetailsActivity extends AppCompatActivity implements MediaDb.UpdateCallback {
     private MediaDb mMediaDb;
+    private PaletteTinter mPaletteTinter;
     private Album mAlbum;
 
     public static void start(@NonNull Context context, @NonNull Album album) {
@@ -68,6 +70,10 @@ public class AlbumDetailsActivity extends AppCompatActivity implements MediaDb.U
         mMediaDb = Globals.getMediaDb(this);
         mMediaDb.addAlbumUpdateCallback(this);
 
+        mPaletteTinter = new PaletteTinter(Globals.getImageLoader(this),
+                findViewById(android.R.id.content));
+        mPaletteTinter.attach();
+
         handleIntent();
     }
 
@@ -82,6 +88,7 @@ public class AlbumDetailsActivity extends AppCompatActivity implements MediaDb.U
     @Override
     protected void onDestroy() {
         mMediaDb.removeAlbumUpdateCallback(this);
+        mPaletteTinter.detach();
 
         super.onDestroy();
     }
@@ -138,6 +145,7 @@ public class AlbumDetailsActivity extends AppCompatActivity implements MediaDb.U
         TextView countView = findViewById(R.id.activity_album_details_count);
 
         imageView.setImageURI(mAlbum.getAlbumArtUri());
+        mPaletteTinter.setImageUri(mAlbum.getAlbumArtUri());
         nameView.setText(mAlbum.getTitle());
         // TODO(b/123037263) I18n -- Move to resource
         countView.setText(mAlbum.getAudios().size() + " songs");
@@ -39,6 +39,7 @@ import com.android.pump.db.Album;
 import com.android.pump.db.Artist;
 import com.android.pump.db.Audio;
 import com.android.pump.db.MediaDb;
+import com.android.pump.ui.PaletteTinter;
 import com.android.pump.util.Globals;
 
 import java.util.List;
@@ -46,6 +47,7 @@ import java.util.List;
 @UiThread
 public class ArtistDetailsActivity extends AppCompatActivity implements MediaDb.UpdateCallback {
     private MediaDb mMediaDb;
+    private PaletteTinter mPaletteTinter;
     private Artist mArtist;
 
     public static void start(@NonNull Context context, @NonNull Artist artist) {
@@ -71,6 +73,10 @@ public class ArtistDetailsActivity extends AppCompatActivity implements MediaDb.
         mMediaDb = Globals.getMediaDb(this);
         mMediaDb.addArtistUpdateCallback(this);
 
+        mPaletteTinter = new PaletteTinter(Globals.getImageLoader(this),
+                findViewById(android.R.id.content));
+        mPaletteTinter.attach();
+
         handleIntent();
     }
 
@@ -85,6 +91,7 @@ public class ArtistDetailsActivity extends AppCompatActivity implements MediaDb.
     @Override
     protected void onDestroy() {
         mMediaDb.removeArtistUpdateCallback(this);
+        mPaletteTinter.detach();
 
         super.onDestroy();
     }
@@ -150,6 +157,7 @@ public class ArtistDetailsActivity extends AppCompatActivity implements MediaDb.
             }
         }
         imageView.setImageURI(albumArtUri);
+        mPaletteTinter.setImageUri(albumArtUri);
         nameView.setText(mArtist.getName());
         // TODO(b/123037263) I18n -- Move to resource
         countView.setText(mArtist.getAudios().size() + " songs");
@@ -18,6 +18,7 @@ package com.android.pump.activity;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.Menu;
 import android.widget.ImageView;
@@ -31,12 +32,15 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.android.pump.R;
 import com.android.pump.db.MediaDb;
+import com.android.pump.ui.PaletteTinter;
 import com.android.pump.db.Movie;
 import com.android.pump.util.Globals;
+import com.android.pump.widget.UriImageView;
 
 @UiThread
 public class MovieDetailsActivity extends AppCompatActivity implements MediaDb.UpdateCallback {
     private MediaDb mMediaDb;
+    private PaletteTinter mPaletteTinter;
     private Movie mMovie;
 
     public static void start(@NonNull Context context, @NonNull Movie movie) {
@@ -62,6 +66,10 @@ public class MovieDetailsActivity extends AppCompatActivity implements MediaDb.U
         mMediaDb = Globals.getMediaDb(this);
         mMediaDb.addMovieUpdateCallback(this);
 
+        mPaletteTinter = new PaletteTinter(Globals.getImageLoader(this),
+                findViewById(android.R.id.content));
+        mPaletteTinter.attach();
+
         handleIntent();
     }
 
@@ -76,6 +84,7 @@ public class MovieDetailsActivity extends AppCompatActivity implements MediaDb.U
     @Override
     protected void onDestroy() {
         mMediaDb.removeMovieUpdateCallback(this);
+        mPaletteTinter.detach();
 
         super.onDestroy();
     }
@@ -127,14 +136,19 @@ public class MovieDetailsActivity extends AppCompatActivity implements MediaDb.U
     }
 
     private void updateViews() {
-        ImageView imageView = findViewById(R.id.activity_movie_details_image);
-        ImageView posterView = findViewById(R.id.activity_movie_details_poster);
+        UriImageView imageView = findViewById(R.id.activity_movie_details_image);
+        UriImageView posterView = findViewById(R.id.activity_movie_details_poster);
         TextView titleView = findViewById(R.id.activity_movie_details_title);
         TextView attributesView = findViewById(R.id.activity_movie_details_attributes);
         TextView synopsisView = findViewById(R.id.activity_movie_details_synopsis);
 
+        // Hero images are large enough for RGB 565 banding to show
+        imageView.setDecodeConfig(Bitmap.Config.ARGB_8888);
+        posterView.setDecodeConfig(Bitmap.Config.ARGB_8888);
         imageView.setImageURI(mMovie.getThumbnailUri());
         posterView.setImageURI(mMovie.getPosterUri());
+        mPaletteTinter.setImageUri(mMovie.getPosterUri() != null
+                ? mMovie.getPosterUri() : mMovie.getThumbnailUri());
         titleView.setText(mMovie.getTitle());
         attributesView.setText("1h 20m"); // TODO(b/123707108) Implement
         synopsisView.setText(getSynopsis());
@@ -18,6 +18,7 @@ package com.android.pump.activity;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.text.format.DateFormat;
 import android.view.Menu;
@@ -34,6 +35,7 @@ import com.android.pump.R;
 import com.android.pump.db.MediaDb;
 import com.android.pump.db.Other;
 import com.android.pump.util.Globals;
+import com.android.pump.widget.UriImageView;
 
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
@@ -131,10 +133,11 @@ public class OtherDetailsActivity extends AppCompatActivity implements MediaDb.U
     }
 
     private void updateViews() {
-        ImageView imageView = findViewById(R.id.activity_other_details_image);
+        UriImageView imageView = findViewById(R.id.activity_other_details_image);
         TextView titleView = findViewById(R.id.activity_other_details_title);
         TextView attributesView = findViewById(R.id.activity_other_details_attributes);
 
+        imageView.setDecodeConfig(Bitmap.Config.ARGB_8888);
         imageView.setImageURI(mOther.getThumbnailUri());
         titleView.setText(mOther.getTitle());
 
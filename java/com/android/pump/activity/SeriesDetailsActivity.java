@@ -18,6 +18,7 @@ package com.android.pump.activity;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -26,7 +27,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
-import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
@@ -43,6 +43,7 @@ import com.android.pump.db.Episode;
 import com.android.pump.db.MediaDb;
 import com.android.pump.db.Series;
 import com.android.pump.util.Globals;
+import com.android.pump.widget.UriImageView;
 
 import java.util.List;
 
@@ -149,12 +150,13 @@ public class SeriesDetailsActivity extends AppCompatActivity implements MediaDb.
 
     private void updateViews() {
         // TODO ImageView imageView = findViewById(R.id.activity_series_details_image);
-        ImageView posterView = findViewById(R.id.activity_series_details_poster);
+        UriImageView posterView = findViewById(R.id.activity_series_details_poster);
         TextView titleView = findViewById(R.id.activity_series_details_title);
         TextView attributesView = findViewById(R.id.activity_series_details_attributes);
         TextView synopsisView = findViewById(R.id.activity_series_details_description);
 
         // TODO imageView.setImageURI(mSeries.get???());
+        posterView.setDecodeConfig(Bitmap.Config.ARGB_8888);
         posterView.setImageURI(mSeries.getPosterUri());
         titleView.setText(mSeries.getTitle());
         attributesView.setText("American Drama Series"); // TODO(b/123707108) Implement
@@ -285,14 +287,15 @@ public class SeriesDetailsActivity extends AppCompatActivity implements MediaDb.
         }
 
         private void bind(@NonNull Episode episode) {
-            ImageView imageView = itemView.findViewById(R.id.episode_image);
+            UriImageView imageView = itemView.findViewById(R.id.episode_image);
             TextView textView = itemView.findViewById(R.id.episode_text);
 
             Uri posterUri = episode.getPosterUri();
-            if (posterUri == null) {
-                posterUri = episode.getThumbnailUri();
+            if (posterUri != null) {
+                imageView.setImageURI(posterUri);
+            } else {
+                imageView.setThumbnailURI(episode.getThumbnailUri(), episode.getId());
             }
-            imageView.setImageURI(posterUri);
             // TODO(b/123037263) I18n -- Move to resource
             textView.setText("Episode " + episode.getEpisode());
 
@@ -1,5 +1,6 @@
 package com.android.pump.app;
 
+import android.app.ActivityManager;
 import android.app.Application;
 
 import androidx.annotation.NonNull;
@@ -7,32 +8,70 @@ import androidx.annotation.UiThread;
 import androidx.recyclerview.widget.RecyclerView.RecycledViewPool;
 
 import com.android.pump.concurrent.Executors;
+import com.android.pump.db.CachedDataProvider;
+import com.android.pump.db.CircuitBreakerDataProvider;
+import com.android.pump.db.CompositeDataProvider;
 import com.android.pump.db.DataProvider;
 import com.android.pump.db.MediaDb;
 import com.android.pump.provider.KnowledgeGraph;
+import com.android.pump.provider.OmdbApi;
+import com.android.pump.provider.Wikidata;
 import com.android.pump.ui.CustomRecycledViewPool;
 import com.android.pump.util.Globals;
+import com.android.pump.util.Http;
+import com.android.pump.util.HttpCache;
 import com.android.pump.util.ImageLoader;
 
+import java.io.File;
 import java.util.concurrent.Executor;
 
 @UiThread
 public abstract class GlobalsApplication extends Application implements Globals.Provider {
+    private static final long HTTP_CACHE_SIZE = 16 * 1024 * 1024;
+
     private Executor mExecutor;
     private ImageLoader mImageLoader;
     private RecycledViewPool mRecycledViewPool;
     private MediaDb mMediaDb;
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Http.setCache(new HttpCache(new File(getCacheDir(), "http"), HTTP_CACHE_SIZE));
+    }
+
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
-        // TODO(b/123038906) Implement
+        if (mImageLoader != null) {
+            mImageLoader.trimMemory(level);
+        }
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Drop everything that can be rebuilt
+            if (mRecycledViewPool != null) {
+                mRecycledViewPool.clear();
+            }
+            if (mMediaDb != null) {
+                mMediaDb.trimMemory();
+            }
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_LOW) {
+            // Only keep what is needed to redraw the visible screen
+            if (mImageLoader != null) {
+                mImageLoader.flush();
+            }
+            if (mMediaDb != null) {
+                mMediaDb.flush();
+            }
+        }
     }
 
     @Override
     public @NonNull ImageLoader getImageLoader() {
         if (mImageLoader == null) {
-            mImageLoader = new ImageLoader(getExecutor());
+            ActivityManager activityManager =
+                    (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+            mImageLoader = new ImageLoader(getContentResolver(), getExecutor(),
+                    activityManager.getMemoryClass(), getCacheDir());
         }
         return mImageLoader;
     }
@@ -48,7 +87,8 @@ public abstract class GlobalsApplication extends Application implements Globals.
     @Override
     public @NonNull MediaDb getMediaDb() {
         if (mMediaDb == null) {
-            mMediaDb = new MediaDb(getContentResolver(), getDataProvider(), getExecutor());
+            mMediaDb = new MediaDb(getContentResolver(), getDataProvider(), getExecutor(),
+                    getCacheDir());
             // TODO When can we release mMediaDb?
         }
         return mMediaDb;
@@ -64,6 +104,11 @@ public abstract class GlobalsApplication extends Application implements Globals.
     }
 
     private @NonNull DataProvider getDataProvider() {
-        return KnowledgeGraph.getInstance();
+        DataProvider dataProvider = CompositeDataProvider.create(getExecutor(),
+                CircuitBreakerDataProvider.create(KnowledgeGraph.getInstance()),
+                CircuitBreakerDataProvider.create(OmdbApi.getInstance()),
+                CircuitBreakerDataProvider.create(Wikidata.getInstance()));
+        return CachedDataProvider.create(dataProvider, "composite",
+                new File(getCacheDir(), "metadata"), getExecutor());
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.concurrent;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import com.android.pump.util.Clog;
+import com.android.pump.util.Metrics;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+// Stops calls to something that keeps failing. Outcomes of the last calls are kept in a rolling
+// window, where calls slower than a limit count as failures too. Once enough of them failed, the
+// breaker opens and calls are refused for a while. Then a single trial call is let through, which
+// closes the breaker again if it succeeds, or opens it for twice as long if not.
+// The state is kept in Metrics as "breaker.<name>.state", see State.
+@AnyThread
+public class CircuitBreaker {
+    private static final String TAG = Clog.tag(CircuitBreaker.class);
+
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+    private static final int FAILURE_PERCENT = 50;
+    private static final long SLOW_CALL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MIN_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static final int REJECTED = -1;
+
+    @IntDef({
+        State.CLOSED,
+        State.OPEN,
+        State.HALF_OPEN
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface State {
+        int CLOSED = 0;
+        int OPEN = 1;
+        int HALF_OPEN = 2;
+    }
+
+    private final String mName;
+    // Whether each of the last calls failed, oldest overwritten first
+    private final boolean[] mWindow = new boolean[WINDOW_SIZE];
+    private int mCalls;
+    private int mFailures;
+    private @State int mState = State.CLOSED;
+    private long mOpenMillis = MIN_OPEN_MILLIS;
+    private long mOpenUntil;
+    private boolean mTrialRunning;
+    // Changes with the state, so that the results of calls let through before say nothing
+    // about the state now
+    private int mEpoch;
+
+    public CircuitBreaker(@NonNull String name) {
+        mName = name;
+    }
+
+    public synchronized @State int getState() {
+        return mState;
+    }
+
+    // Returns REJECTED if no call may be made now, or else the ticket of the call, which must
+    // be passed to one of onSuccess(), onFailure() or onCancel() once it is done.
+    public synchronized int tryAcquire() {
+        if (mState == State.OPEN) {
+            if (SystemClock.elapsedRealtime() < mOpenUntil) {
+                Metrics.increment("breaker." + mName + ".rejected");
+                return REJECTED;
+            }
+            setState(State.HALF_OPEN);
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialRunning) {
+                Metrics.increment("breaker." + mName + ".rejected");
+                return REJECTED;
+            }
+            mTrialRunning = true;
+        }
+        return mEpoch;
+    }
+
+    public synchronized void onSuccess(int ticket, long latencyMillis) {
+        onResult(ticket, latencyMillis >= SLOW_CALL_MILLIS);
+    }
+
+    public synchronized void onFailure(int ticket) {
+        onResult(ticket, true);
+    }
+
+    // The call was given up by the caller, which says nothing about its health.
+    public synchronized void onCancel(int ticket) {
+        if (ticket == mEpoch && mState == State.HALF_OPEN) {
+            mTrialRunning = false;
+        }
+    }
+
+    private void onResult(int ticket, boolean failed) {
+        if (ticket != mEpoch) {
+            // Let through in another state, such as before the breaker opened. Only the trial
+            // call may settle a half open breaker.
+            return;
+        }
+        if (mState == State.HALF_OPEN) {
+            mTrialRunning = false;
+            if (failed) {
+                open(Math.min(mOpenMillis * 2, MAX_OPEN_MILLIS));
+            } else {
+                close();
+            }
+            return;
+        }
+
+        int index = mCalls % WINDOW_SIZE;
+        if (mCalls >= WINDOW_SIZE && mWindow[index]) {
+            --mFailures;
+        }
+        mWindow[index] = failed;
+        if (failed) {
+            ++mFailures;
+        }
+        ++mCalls;
+        int calls = Math.min(mCalls, WINDOW_SIZE);
+        if (calls >= MIN_CALLS && mFailures * 100 >= calls * FAILURE_PERCENT) {
+            open(MIN_OPEN_MILLIS);
+        }
+    }
+
+    private void open(long openMillis) {
+        Clog.w(TAG, mName + " is failing, no calls for " + openMillis + " ms");
+        mOpenMillis = openMillis;
+        mOpenUntil = SystemClock.elapsedRealtime() + openMillis;
+        setState(State.OPEN);
+        Metrics.increment("breaker." + mName + ".opened");
+    }
+
+    private void close() {
+        Clog.i(TAG, mName + " has recovered");
+        mOpenMillis = MIN_OPEN_MILLIS;
+        mCalls = 0;
+        mFailures = 0;
+        setState(State.CLOSED);
+    }
+
+    private void setState(@State int state) {
+        Metrics.set("breaker." + mName + ".state", state);
+        mState = state;
+        // Never REJECTED
+        mEpoch = (mEpoch + 1) & Integer.MAX_VALUE;
+    }
+}
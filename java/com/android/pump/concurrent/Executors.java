@@ -25,6 +25,8 @@ import androidx.annotation.NonNull;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -59,6 +61,13 @@ public final class Executors {
         return UI_THREAD_EXECUTOR;
     }
 
+    // Hands the command to the executor once the delay has passed. The timer thread never runs
+    // commands itself, and no thread of the executor is held while waiting.
+    public static void executeDelayed(@NonNull Executor executor, @NonNull Runnable command,
+            long delay, @NonNull TimeUnit unit) {
+        TimerHolder.TIMER.schedule(() -> executor.execute(command), delay, unit);
+    }
+
     public static @NonNull ExecutorService newFixedUniqueThreadPool(int nThreads) {
         return new UniqueExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<>());
@@ -80,4 +89,13 @@ public final class Executors {
         return new UniqueExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(), threadFactory);
     }
+
+    private static final class TimerHolder {
+        private static final ScheduledExecutorService TIMER =
+                new ScheduledThreadPoolExecutor(1, (runnable) -> {
+                    Thread thread = new Thread(runnable, "Executors.timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
 }
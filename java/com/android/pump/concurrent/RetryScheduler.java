@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.concurrent;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs failed tasks again later by re-submitting them to their executor after a delay, instead of
+// sleeping on a worker thread. Delays grow exponentially with random jitter, so that retries from
+// many tasks spread out. Only so many retries may be waiting at once, across all schedulers.
+@AnyThread
+public class RetryScheduler {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_PENDING_RETRIES = 8;
+
+    private static final AtomicInteger sPendingRetries = new AtomicInteger();
+    private static final Random sRandom = new Random();
+
+    private final Executor mExecutor;
+
+    public RetryScheduler(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    // Runs the task again after at least minDelayMillis, such as a server's Retry-After, unless
+    // it has used up its attempts or too many retries are already waiting. Attempts count from 0.
+    // Returns whether the retry was scheduled.
+    public boolean schedule(@NonNull Runnable task, int attempt, long minDelayMillis) {
+        long delay = getDelay(attempt, minDelayMillis);
+        if (delay < 0) {
+            return false;
+        }
+        if (sPendingRetries.incrementAndGet() > MAX_PENDING_RETRIES) {
+            sPendingRetries.decrementAndGet();
+            return false;
+        }
+        Executors.executeDelayed(mExecutor, () -> {
+            sPendingRetries.decrementAndGet();
+            task.run();
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Returns how long to wait, in milliseconds, before the given attempt, or -1 if the task has
+    // used up its attempts. For callers that have no choice but to wait on their own thread.
+    // The jitter goes on top of minDelayMillis, so that a server asking every client to come
+    // back after the same time does not get them all at once.
+    public static long getDelay(int attempt, long minDelayMillis) {
+        if (attempt >= MAX_ATTEMPTS) {
+            return -1;
+        }
+        long backoff = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << attempt);
+        long jitter = (long) (sRandom.nextDouble() * backoff / 2);
+        return Math.max(minDelayMillis, backoff / 2) + jitter;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.concurrent;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// The result of some I/O, set by whoever does it, with callbacks for whoever waits for it, so
+// that nobody has to hold a thread while waiting. A future fails with an IOException, or with a
+// RuntimeException for a bug, which is passed on as it is. A cancelled future fails with an
+// InterruptedIOException, and cancelling a future derived with then() or catching() cancels the
+// one it came from.
+@AnyThread
+public class SettableFuture<T> implements Future<T> {
+    private final List<Runnable> mListeners = new ArrayList<>();
+    private boolean mDone;
+    private boolean mCancelled;
+    private T mValue;
+    // An IOException or a RuntimeException
+    private Exception mError;
+
+    public static @NonNull <T> SettableFuture<T> immediate(@NonNull T value) {
+        SettableFuture<T> future = new SettableFuture<>();
+        future.set(value);
+        return future;
+    }
+
+    public static @NonNull <T> SettableFuture<T> immediateFailed(@NonNull Exception e) {
+        SettableFuture<T> future = new SettableFuture<>();
+        future.setException(e);
+        return future;
+    }
+
+    // Runs blocking work on the executor. A task cancelled before it starts is skipped.
+    public static @NonNull <T> SettableFuture<T> submit(@NonNull Executor executor,
+            @NonNull IoCallable<T> callable) {
+        SettableFuture<T> future = new SettableFuture<>();
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.set(callable.call());
+            } catch (IOException | RuntimeException e) {
+                future.setException(e);
+            }
+        });
+        return future;
+    }
+
+    // Returns false if the future is already done.
+    public boolean set(@NonNull T value) {
+        return complete(value, null, false);
+    }
+
+    // Takes an IOException or a RuntimeException.
+    public boolean setException(@NonNull Exception e) {
+        if (!(e instanceof IOException) && !(e instanceof RuntimeException)) {
+            throw new IllegalArgumentException("Not an IOException", e);
+        }
+        return complete(null, e, false);
+    }
+
+    // Completes this future the same way as the other, once it is done. Cancelling this future
+    // cancels the other.
+    public void setFuture(@NonNull SettableFuture<? extends T> other) {
+        other.addListener(() -> {
+            if (other.mError != null) {
+                setException(other.mError);
+            } else {
+                set(other.mValue);
+            }
+        });
+        addListener(() -> {
+            if (mCancelled) {
+                other.cancel(false);
+            }
+        });
+    }
+
+    // Whoever does the work finds out with isCancelled() or a callback, running work is never
+    // interrupted.
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, new InterruptedIOException("Cancelled"), true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return getDone();
+    }
+
+    @Override
+    public synchronized T get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getDone();
+    }
+
+    // Blocks until the future is done, for callers that have a thread to spare. The future is
+    // cancelled if the caller is interrupted.
+    @WorkerThread
+    public @NonNull T await() throws IOException {
+        synchronized (this) {
+            try {
+                while (!mDone) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!isDone()) {
+            cancel(true);
+            throw new InterruptedIOException("Interrupted while waiting");
+        }
+        if (mError instanceof RuntimeException) {
+            throw (RuntimeException) mError;
+        } else if (mError != null) {
+            throw (IOException) mError;
+        }
+        return mValue;
+    }
+
+    // Runs the callback on the executor once the future is done.
+    public void addCallback(@NonNull Callback<? super T> callback, @NonNull Executor executor) {
+        addListener(() -> executor.execute(() -> {
+            if (mError != null) {
+                callback.onFailure(mError);
+            } else {
+                callback.onSuccess(mValue);
+            }
+        }));
+    }
+
+    // Returns a future that is done the same way as this one, once the callback has run on the
+    // thread that completed this one.
+    public @NonNull SettableFuture<T> whenDone(@NonNull Callback<? super T> callback) {
+        SettableFuture<T> result = new SettableFuture<>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(@NonNull T value) {
+                callback.onSuccess(value);
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                callback.onFailure(e);
+                result.setException(e);
+            }
+        }, Executors.directExecutor());
+        result.cancelWith(this);
+        return result;
+    }
+
+    // Returns a future for the value transformed, on the thread that completed this one.
+    // Failures are passed on as they are.
+    public @NonNull <R> SettableFuture<R> then(@NonNull Transform<? super T, R> transform) {
+        SettableFuture<R> result = new SettableFuture<>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(@NonNull T value) {
+                try {
+                    result.set(transform.apply(value));
+                } catch (IOException | RuntimeException e) {
+                    result.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                result.setException(e);
+            }
+        }, Executors.directExecutor());
+        result.cancelWith(this);
+        return result;
+    }
+
+    // Returns a future for the value, or for what the recovery makes of an IOException, on the
+    // thread that completed this one. The recovery may throw the failure again.
+    public @NonNull SettableFuture<T> catching(@NonNull Recovery<? extends T> recovery) {
+        SettableFuture<T> result = new SettableFuture<>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(@NonNull T value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                if (result.isCancelled()) {
+                    return;
+                } else if (!(e instanceof IOException)) {
+                    result.setException(e);
+                    return;
+                }
+                try {
+                    result.set(recovery.recover((IOException) e));
+                } catch (IOException | RuntimeException re) {
+                    result.setException(re);
+                }
+            }
+        }, Executors.directExecutor());
+        result.cancelWith(this);
+        return result;
+    }
+
+    private void cancelWith(@NonNull SettableFuture<?> source) {
+        addListener(() -> {
+            if (mCancelled) {
+                source.cancel(false);
+            }
+        });
+    }
+
+    private void addListener(@NonNull Runnable listener) {
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private boolean complete(@Nullable T value, @Nullable Exception error, boolean cancelled) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mValue = value;
+            mError = error;
+            mCancelled = cancelled;
+            mDone = true;
+            notifyAll();
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private T getDone() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        } else if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mValue;
+    }
+
+    public interface Callback<T> {
+        void onSuccess(@NonNull T value);
+        // An IOException or a RuntimeException
+        void onFailure(@NonNull Exception e);
+    }
+
+    @FunctionalInterface
+    public interface Transform<T, R> {
+        @NonNull R apply(@NonNull T value) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Recovery<T> {
+        @NonNull T recover(@NonNull IOException e) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface IoCallable<T> {
+        @NonNull T call() throws IOException;
+    }
+}
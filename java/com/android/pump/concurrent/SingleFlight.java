@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.concurrent;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import com.android.pump.util.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+// Runs one load per key at a time. Callers asking for a key that is already being loaded share
+// that load and its result, and so do callers asking shortly after it finished. Failures are
+// shared with the callers waiting at the time, but not remembered. A load is only cancelled
+// once every caller waiting for it has cancelled.
+@AnyThread
+public class SingleFlight<K, V> {
+    private final String mName;
+    private final long mMemoMillis;
+    private final Map<K, Flight<V>> mFlights = new HashMap<>();
+    // Keys of the loads that succeeded, in the order they did, so the first ones expire first
+    private final Queue<Done<K, V>> mDone = new ArrayDeque<>();
+
+    public SingleFlight(@NonNull String name, long memoMillis) {
+        mName = name;
+        mMemoMillis = memoMillis;
+    }
+
+    public @NonNull SettableFuture<V> load(@NonNull K key, @NonNull Loader<V> loader) {
+        Flight<V> flight;
+        boolean leader = false;
+        synchronized (this) {
+            removeExpired();
+            flight = mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<>();
+                mFlights.put(key, flight);
+                leader = true;
+            }
+            ++flight.mCallers;
+        }
+
+        SettableFuture<V> result = new SettableFuture<>();
+        Flight<V> joined = flight;
+        flight.mFuture.addCallback(new SettableFuture.Callback<V>() {
+            @Override
+            public void onSuccess(@NonNull V value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                result.setException(e);
+            }
+        }, Executors.directExecutor());
+        result.addCallback(new SettableFuture.Callback<V>() {
+            @Override
+            public void onSuccess(@NonNull V value) { }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                if (result.isCancelled()) {
+                    leave(key, joined);
+                }
+            }
+        }, Executors.directExecutor());
+
+        if (!leader) {
+            Metrics.increment("single_flight." + mName + ".shared");
+            return result;
+        }
+        Metrics.increment("single_flight." + mName + ".loaded");
+        flight.mFuture.addCallback(new SettableFuture.Callback<V>() {
+            @Override
+            public void onSuccess(@NonNull V value) {
+                synchronized (SingleFlight.this) {
+                    joined.mDoneTime = SystemClock.elapsedRealtime();
+                    if (mFlights.get(key) == joined) {
+                        mDone.add(new Done<>(key, joined));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                forget(key, joined);
+            }
+        }, Executors.directExecutor());
+        SettableFuture<V> load;
+        try {
+            load = loader.load();
+        } catch (RuntimeException e) {
+            load = SettableFuture.immediateFailed(e);
+        }
+        flight.mFuture.setFuture(load);
+        return result;
+    }
+
+    private void leave(@NonNull K key, @NonNull Flight<V> flight) {
+        synchronized (this) {
+            if (--flight.mCallers > 0 || flight.mFuture.isDone()) {
+                return;
+            }
+            forget(key, flight);
+        }
+        flight.mFuture.cancel(false);
+    }
+
+    private synchronized void forget(@NonNull K key, @NonNull Flight<V> flight) {
+        if (mFlights.get(key) == flight) {
+            mFlights.remove(key);
+        }
+    }
+
+    // Loads still running are not in mDone, so one that hangs holds back no other.
+    private void removeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Done<K, V> done;
+        while ((done = mDone.peek()) != null && now - done.mFlight.mDoneTime >= mMemoMillis) {
+            mDone.remove();
+            forget(done.mKey, done.mFlight);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        @NonNull SettableFuture<V> load();
+    }
+
+    private static class Done<K, V> {
+        private final K mKey;
+        private final Flight<V> mFlight;
+
+        private Done(K key, Flight<V> flight) {
+            mKey = key;
+            mFlight = flight;
+        }
+    }
+
+    private static class Flight<V> {
+        private final SettableFuture<V> mFuture = new SettableFuture<>();
+        private int mCallers;
+        private long mDoneTime = -1;
+    }
+}
@@ -112,6 +112,15 @@ public class Artist {
         mLoaded = true;
     }
 
+    // Returns whether anything was dropped, which MediaDb.loadData() puts back on demand.
+    boolean trimMemory() {
+        if (mDescription == null) {
+            return false;
+        }
+        mDescription = null;
+        return true;
+    }
+
     @Override
     public final boolean equals(@Nullable Object obj) {
         return obj instanceof Artist && mId == ((Artist) obj).mId;
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import com.android.pump.concurrent.SettableFuture;
+
+// A DataProvider that does not hold a thread while waiting for the network. The futures tell
+// whether the item was updated, and fail the same way the blocking calls throw. Cancelling a
+// future gives up on the lookup.
+@AnyThread
+public interface AsyncDataProvider extends DataProvider {
+    @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist);
+    @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album);
+    @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie);
+    @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series);
+    @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import com.android.pump.concurrent.SettableFuture;
+
+import java.util.Collection;
+import java.util.Set;
+
+// A DataProvider that can look up many items with one request. MediaDb gathers the items it is
+// asked to load for a moment and hands them over together. Like AsyncDataProvider, no thread is
+// held while waiting for the network.
+public interface BatchDataProvider extends DataProvider {
+    // The future is for the movies that were updated. Movies with nothing found are simply left
+    // out.
+    @AnyThread
+    @NonNull SettableFuture<Set<Movie>> populateMoviesAsync(@NonNull Collection<Movie> movies);
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.ArraySet;
+import androidx.core.util.AtomicFile;
+
+import com.android.pump.concurrent.Executors;
+import com.android.pump.concurrent.SettableFuture;
+import com.android.pump.util.Clog;
+import com.android.pump.util.IoUtils;
+import com.android.pump.util.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Remembers what a DataProvider found, and what it did not, across runs. Results are kept in a
+// journal that new results are appended to, and that is rewritten on the executor without the
+// expired and replaced ones once they make up most of it. The asynchronous calls are passed on
+// as such if the provider has them, or else run its blocking calls on the executor. Batches are
+// passed on the same way, or else looked up one movie at a time.
+@AnyThread
+public class CachedDataProvider implements AsyncDataProvider, BatchDataProvider {
+    private static final String TAG = Clog.tag(CachedDataProvider.class);
+
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 8192;
+    private static final int MIN_COMPACT_RECORDS = 256;
+    private static final long FOUND_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long NOT_FOUND_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final DataProvider mProvider;
+    private final AsyncDataProvider mAsyncProvider;
+    // Null if the provider cannot look up movies in batches
+    private final BatchDataProvider mBatchProvider;
+    private final String mName;
+    private final AtomicFile mFile;
+    private final Executor mExecutor;
+    // Least recently used first
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private DataOutputStream mJournal;
+    private int mRecordCount;
+    private boolean mLoaded;
+    private boolean mCompactScheduled;
+
+    private CachedDataProvider(@NonNull DataProvider provider, @NonNull String name,
+            @NonNull File file, @NonNull Executor executor) {
+        mProvider = provider;
+        mAsyncProvider = provider instanceof AsyncDataProvider
+                ? (AsyncDataProvider) provider
+                : new ExecutorDataProvider(provider, executor);
+        mBatchProvider = provider instanceof BatchDataProvider
+                ? (BatchDataProvider) provider
+                : null;
+        mName = name;
+        mFile = new AtomicFile(file);
+        mExecutor = executor;
+    }
+
+    // The name tells the results of different providers apart, should they share the file.
+    public static @NonNull CachedDataProvider create(@NonNull DataProvider provider,
+            @NonNull String name, @NonNull File file, @NonNull Executor executor) {
+        return new CachedDataProvider(provider, name, file, executor);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateArtist(@NonNull Artist artist) throws IOException {
+        return populate(artist, getKey(artist), () -> mProvider.populateArtist(artist));
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateAlbum(@NonNull Album album) throws IOException {
+        return populate(album, getKey(album), () -> mProvider.populateAlbum(album));
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateMovie(@NonNull Movie movie) throws IOException {
+        return populate(movie, getKey(movie), () -> mProvider.populateMovie(movie));
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateSeries(@NonNull Series series) throws IOException {
+        return populate(series, getKey(series), () -> mProvider.populateSeries(series));
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateEpisode(@NonNull Episode episode) throws IOException {
+        return populate(episode, getKey(episode), () -> mProvider.populateEpisode(episode));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        return populateAsync(artist, getKey(artist),
+                () -> mAsyncProvider.populateArtistAsync(artist));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        return populateAsync(album, getKey(album),
+                () -> mAsyncProvider.populateAlbumAsync(album));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return populateAsync(movie, getKey(movie),
+                () -> mAsyncProvider.populateMovieAsync(movie));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return populateAsync(series, getKey(series),
+                () -> mAsyncProvider.populateSeriesAsync(series));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return populateAsync(episode, getKey(episode),
+                () -> mAsyncProvider.populateEpisodeAsync(episode));
+    }
+
+    // Only the movies that are not cached are passed on. The results are saved on the thread
+    // that completes the lookup.
+    @Override
+    public @NonNull SettableFuture<Set<Movie>> populateMoviesAsync(
+            @NonNull Collection<Movie> movies) {
+        if (mBatchProvider == null) {
+            return populateEachAsync(movies);
+        }
+        Set<Movie> updated = new ArraySet<>();
+        List<Movie> misses = new ArrayList<>();
+        List<Metadata> befores = new ArrayList<>();
+        for (Movie movie : movies) {
+            Entry entry = get(getKey(movie));
+            if (entry == null) {
+                misses.add(movie);
+                befores.add(Metadata.of(movie));
+            } else if (entry.mMetadata.applyTo(movie)) {
+                updated.add(movie);
+            }
+        }
+        if (misses.isEmpty()) {
+            return SettableFuture.immediate(updated);
+        }
+        return mBatchProvider.populateMoviesAsync(misses).then(found -> {
+            for (int i = 0; i < misses.size(); ++i) {
+                putResult(getKey(misses.get(i)), befores.get(i), misses.get(i));
+            }
+            updated.addAll(found);
+            return updated;
+        });
+    }
+
+    private boolean populate(@NonNull Object item, @NonNull String key,
+            @NonNull Populator populator) throws IOException {
+        Entry entry = get(key);
+        if (entry != null) {
+            return entry.mMetadata.applyTo(item);
+        }
+
+        Metadata before = Metadata.of(item);
+        boolean updated;
+        try {
+            updated = populator.populate();
+        } catch (NotFoundException e) {
+            putNotFound(key);
+            return false;
+        }
+        putResult(key, before, item);
+        return updated;
+    }
+
+    // Reads and writes the cache on the calling thread and the one that completes the lookup,
+    // the same as the blocking calls would.
+    private @NonNull SettableFuture<Boolean> populateAsync(@NonNull Object item,
+            @NonNull String key, @NonNull AsyncPopulator populator) {
+        Entry entry = get(key);
+        if (entry != null) {
+            return SettableFuture.immediate(entry.mMetadata.applyTo(item));
+        }
+
+        Metadata before = Metadata.of(item);
+        return populator.populate().then(updated -> {
+            putResult(key, before, item);
+            return updated;
+        }).catching(e -> {
+            if (!(e instanceof NotFoundException)) {
+                throw e;
+            }
+            putNotFound(key);
+            return false;
+        });
+    }
+
+    // For a provider that cannot batch, all at the same time, each through the cache. Movies
+    // not found count as not updated. The batch fails with the first other error, once every
+    // lookup is done.
+    private @NonNull SettableFuture<Set<Movie>> populateEachAsync(
+            @NonNull Collection<Movie> movies) {
+        Set<Movie> updated = new ArraySet<>();
+        if (movies.isEmpty()) {
+            return SettableFuture.immediate(updated);
+        }
+        SettableFuture<Set<Movie>> result = new SettableFuture<>();
+        Exception[] error = new Exception[1];
+        AtomicInteger remaining = new AtomicInteger(movies.size());
+        for (Movie movie : movies) {
+            populateMovieAsync(movie).addCallback(new SettableFuture.Callback<Boolean>() {
+                @Override
+                public void onSuccess(@NonNull Boolean movieUpdated) {
+                    synchronized (updated) {
+                        if (movieUpdated) {
+                            updated.add(movie);
+                        }
+                    }
+                    onDone();
+                }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    synchronized (updated) {
+                        if (error[0] == null) {
+                            error[0] = e;
+                        }
+                    }
+                    onDone();
+                }
+
+                private void onDone() {
+                    if (remaining.decrementAndGet() > 0) {
+                        return;
+                    }
+                    synchronized (updated) {
+                        if (error[0] != null) {
+                            result.setException(error[0]);
+                        } else {
+                            result.set(updated);
+                        }
+                    }
+                }
+            }, Executors.directExecutor());
+        }
+        return result;
+    }
+
+    // Puts back what is cached about an artist, album, movie, series or episode, expired or not,
+    // without asking the provider. Returns whether anything was cached.
+    @WorkerThread
+    public boolean restore(@NonNull Object item) {
+        String key = getKey(item);
+        Entry entry;
+        synchronized (this) {
+            load();
+            entry = mEntries.get(key);
+        }
+        if (entry == null) {
+            Metrics.increment("metadata.cache.restore_miss");
+            return false;
+        }
+        entry.mMetadata.applyTo(item);
+        return true;
+    }
+
+    // Returns the unexpired entry for the key, or null if the provider has to be asked.
+    private @Nullable Entry get(@NonNull String key) {
+        Entry entry;
+        synchronized (this) {
+            load();
+            entry = mEntries.get(key);
+            if (entry != null && entry.mExpires < System.currentTimeMillis()) {
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            Metrics.increment("metadata.cache.miss");
+        } else {
+            Metrics.increment(!entry.mMetadata.isEmpty() ? "metadata.cache.hit"
+                    : "metadata.cache.not_found_hit");
+        }
+        return entry;
+    }
+
+    // Only remembers what the provider filled in, not what the item came with.
+    private void putResult(@NonNull String key, @NonNull Metadata before, @NonNull Object item) {
+        Metadata metadata = Metadata.of(item).changedFrom(before);
+        put(key, new Entry(metadata, System.currentTimeMillis()
+                + (metadata.isEmpty() ? NOT_FOUND_TTL_MILLIS : FOUND_TTL_MILLIS)));
+    }
+
+    private void putNotFound(@NonNull String key) {
+        Clog.i(TAG, "Nothing found for " + key);
+        put(key, new Entry(Metadata.NONE, System.currentTimeMillis() + NOT_FOUND_TTL_MILLIS));
+    }
+
+    private synchronized void put(@NonNull String key, @NonNull Entry entry) {
+        mEntries.put(key, entry);
+        if (mEntries.size() > MAX_ENTRIES) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+        try {
+            if (mJournal == null) {
+                boolean exists = mFile.getBaseFile().exists();
+                mJournal = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mFile.getBaseFile(), true)));
+                if (!exists) {
+                    mJournal.writeInt(VERSION);
+                }
+            }
+            writeEntry(mJournal, key, entry);
+            mJournal.flush();
+            ++mRecordCount;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to save metadata for " + key, e);
+            IoUtils.close(mJournal);
+            mJournal = null;
+        }
+        if (mRecordCount > Math.max(MIN_COMPACT_RECORDS, mEntries.size() * 2)
+                && !mCompactScheduled) {
+            mCompactScheduled = true;
+            mExecutor.execute(this::compact);
+        }
+    }
+
+    private synchronized void compact() {
+        mCompactScheduled = false;
+        IoUtils.close(mJournal);
+        mJournal = null;
+
+        long now = System.currentTimeMillis();
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(VERSION);
+            int count = 0;
+            for (Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+                    iterator.hasNext(); ) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getValue().mExpires < now) {
+                    iterator.remove();
+                } else {
+                    writeEntry(out, entry.getKey(), entry.getValue());
+                    ++count;
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fileOutputStream);
+            mRecordCount = count;
+            Metrics.increment("metadata.cache.compacted");
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to compact metadata", e);
+            if (fileOutputStream != null) {
+                mFile.failWrite(fileOutputStream);
+            }
+        }
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                mFile.delete();
+                return;
+            }
+            // Later records replace earlier ones
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                long expires = in.readLong();
+                Metadata metadata = new Metadata(readString(in), readString(in),
+                        readString(in));
+                mEntries.put(key, new Entry(metadata, expires));
+                ++mRecordCount;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+        } catch (IOException e) {
+            // Most likely a record cut short, keep what was read and rewrite the journal
+            Clog.w(TAG, "Failed to load metadata", e);
+            mCompactScheduled = true;
+            mExecutor.execute(this::compact);
+        } finally {
+            IoUtils.close(in);
+        }
+    }
+
+    private @NonNull String getKey(@NonNull Object item) {
+        if (item instanceof Artist) {
+            return getKey((Artist) item);
+        } else if (item instanceof Album) {
+            return getKey((Album) item);
+        } else if (item instanceof Movie) {
+            return getKey((Movie) item);
+        } else if (item instanceof Series) {
+            return getKey((Series) item);
+        } else if (item instanceof Episode) {
+            return getKey((Episode) item);
+        }
+        throw new IllegalArgumentException("Unexpected item " + item);
+    }
+
+    private @NonNull String getKey(@NonNull Artist artist) {
+        return getKey("artist", artist.getName());
+    }
+
+    private @NonNull String getKey(@NonNull Album album) {
+        return getKey("album", album.getTitle());
+    }
+
+    private @NonNull String getKey(@NonNull Movie movie) {
+        String year = movie.hasYear() ? Integer.toString(movie.getYear()) : null;
+        return getKey("movie", movie.getTitle(), year);
+    }
+
+    private @NonNull String getKey(@NonNull Series series) {
+        String year = series.hasYear() ? Integer.toString(series.getYear()) : null;
+        return getKey("series", series.getTitle(), year);
+    }
+
+    private @NonNull String getKey(@NonNull Episode episode) {
+        Series series = episode.getSeries();
+        String year = series.hasYear() ? Integer.toString(series.getYear()) : null;
+        return getKey("episode", series.getTitle(), year,
+                Integer.toString(episode.getSeason()), Integer.toString(episode.getEpisode()));
+    }
+
+    private @NonNull String getKey(@NonNull String type, @Nullable String... query) {
+        StringBuilder key = new StringBuilder(mName).append('|').append(type);
+        for (String part : query) {
+            key.append('|');
+            if (part != null) {
+                key.append(part.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT));
+            }
+        }
+        return key.toString();
+    }
+
+    private static void writeEntry(@NonNull DataOutputStream out, @NonNull String key,
+            @NonNull Entry entry) throws IOException {
+        out.writeUTF(key);
+        out.writeLong(entry.mExpires);
+        writeString(out, entry.mMetadata.getImageUri());
+        writeString(out, entry.mMetadata.getDescription());
+        writeString(out, entry.mMetadata.getSynopsis());
+    }
+
+    // Unlike writeUTF(), not limited to 64k, as descriptions may be long.
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static @Nullable String readString(@NonNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface Populator {
+        boolean populate() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface AsyncPopulator {
+        @NonNull SettableFuture<Boolean> populate();
+    }
+
+    private static class Entry {
+        private final Metadata mMetadata;
+        private final long mExpires;
+
+        private Entry(@NonNull Metadata metadata, long expires) {
+            mMetadata = metadata;
+            mExpires = expires;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.pump.concurrent.CircuitBreaker;
+import com.android.pump.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.Set;
+
+// Fails fast with an UnavailableException while the provider keeps failing or timing out.
+@WorkerThread
+public class CircuitBreakerDataProvider implements AsyncDataProvider {
+    private final AsyncDataProvider mProvider;
+    private final String mName;
+    private final CircuitBreaker mBreaker;
+
+    private CircuitBreakerDataProvider(@NonNull AsyncDataProvider provider) {
+        mProvider = provider;
+        mName = provider.getClass().getSimpleName();
+        mBreaker = new CircuitBreaker(mName);
+    }
+
+    // The result is a BatchDataProvider if the provider is one.
+    public static @NonNull CircuitBreakerDataProvider create(
+            @NonNull AsyncDataProvider provider) {
+        if (provider instanceof BatchDataProvider) {
+            return new Batch(provider);
+        }
+        return new CircuitBreakerDataProvider(provider);
+    }
+
+    @NonNull String getName() {
+        return mName;
+    }
+
+    @Override
+    public boolean populateArtist(@NonNull Artist artist) throws IOException {
+        return populateArtistAsync(artist).await();
+    }
+
+    @Override
+    public boolean populateAlbum(@NonNull Album album) throws IOException {
+        return populateAlbumAsync(album).await();
+    }
+
+    @Override
+    public boolean populateMovie(@NonNull Movie movie) throws IOException {
+        return populateMovieAsync(movie).await();
+    }
+
+    @Override
+    public boolean populateSeries(@NonNull Series series) throws IOException {
+        return populateSeriesAsync(series).await();
+    }
+
+    @Override
+    public boolean populateEpisode(@NonNull Episode episode) throws IOException {
+        return populateEpisodeAsync(episode).await();
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        return call(() -> mProvider.populateArtistAsync(artist));
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        return call(() -> mProvider.populateAlbumAsync(album));
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return call(() -> mProvider.populateMovieAsync(movie));
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return call(() -> mProvider.populateSeriesAsync(series));
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return call(() -> mProvider.populateEpisodeAsync(episode));
+    }
+
+    @NonNull <T> SettableFuture<T> call(@NonNull Call<T> call) {
+        int ticket = mBreaker.tryAcquire();
+        if (ticket == CircuitBreaker.REJECTED) {
+            return SettableFuture.immediateFailed(
+                    new UnavailableException(mName + " is unavailable"));
+        }
+        long start = SystemClock.elapsedRealtime();
+        SettableFuture<T> future;
+        try {
+            future = call.run();
+        } catch (RuntimeException e) {
+            mBreaker.onFailure(ticket);
+            throw e;
+        }
+        return future.whenDone(new SettableFuture.Callback<T>() {
+            @Override
+            public void onSuccess(@NonNull T value) {
+                mBreaker.onSuccess(ticket, SystemClock.elapsedRealtime() - start);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                if (e instanceof NotFoundException) {
+                    // An answer all the same
+                    mBreaker.onSuccess(ticket, SystemClock.elapsedRealtime() - start);
+                } else if (e instanceof InterruptedIOException
+                        && !(e instanceof SocketTimeoutException)) {
+                    mBreaker.onCancel(ticket);
+                } else {
+                    mBreaker.onFailure(ticket);
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+        @NonNull SettableFuture<T> run();
+    }
+
+    private static class Batch extends CircuitBreakerDataProvider implements BatchDataProvider {
+        private final BatchDataProvider mBatchProvider;
+
+        private Batch(@NonNull AsyncDataProvider provider) {
+            super(provider);
+            mBatchProvider = (BatchDataProvider) provider;
+        }
+
+        @AnyThread
+        @Override
+        public @NonNull SettableFuture<Set<Movie>> populateMoviesAsync(
+                @NonNull Collection<Movie> movies) {
+            return call(() -> mBatchProvider.populateMoviesAsync(movies));
+        }
+    }
+}
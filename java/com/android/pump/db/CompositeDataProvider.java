@@ -0,0 +1,678 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.ArraySet;
+
+import com.android.pump.concurrent.Executors;
+import com.android.pump.concurrent.SettableFuture;
+import com.android.pump.util.Clog;
+import com.android.pump.util.Metrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Asks several providers for the same item and takes each field from whichever answers first.
+// Providers are tried fastest first, by their median latency so far. The next one is started
+// when the ones running are slower than usual, at their 90th percentile, or have finished
+// without filling in every field. Once every field is set, the providers still running are
+// cancelled. No thread is held while waiting for any of it.
+@WorkerThread
+public class CompositeDataProvider implements AsyncDataProvider {
+    private static final String TAG = Clog.tag(CompositeDataProvider.class);
+
+    private static final long MIN_HEDGE_DELAY_MILLIS = 100;
+
+    private final List<Source> mSources = new ArrayList<>();
+    // Starts the hedged lookups, which the timer thread is not for
+    private final Executor mExecutor;
+
+    private CompositeDataProvider(@NonNull Executor executor,
+            @NonNull AsyncDataProvider... providers) {
+        mExecutor = executor;
+        for (AsyncDataProvider provider : providers) {
+            mSources.add(new Source(provider, mSources.size()));
+        }
+    }
+
+    // The result is a BatchDataProvider if any of the providers is one, see Batch.
+    public static @NonNull CompositeDataProvider create(@NonNull Executor executor,
+            @NonNull AsyncDataProvider... providers) {
+        for (AsyncDataProvider provider : providers) {
+            if (provider instanceof BatchDataProvider) {
+                return new Batch(executor, providers);
+            }
+        }
+        return new CompositeDataProvider(executor, providers);
+    }
+
+    @Override
+    public boolean populateArtist(@NonNull Artist artist) throws IOException {
+        return populateArtistAsync(artist).await();
+    }
+
+    @Override
+    public boolean populateAlbum(@NonNull Album album) throws IOException {
+        return populateAlbumAsync(album).await();
+    }
+
+    @Override
+    public boolean populateMovie(@NonNull Movie movie) throws IOException {
+        return populateMovieAsync(movie).await();
+    }
+
+    @Override
+    public boolean populateSeries(@NonNull Series series) throws IOException {
+        return populateSeriesAsync(series).await();
+    }
+
+    @Override
+    public boolean populateEpisode(@NonNull Episode episode) throws IOException {
+        return populateEpisodeAsync(episode).await();
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        return populate(artist, () -> {
+            Artist copy = new Artist(artist.getId());
+            if (artist.getName() != null) {
+                copy.setName(artist.getName());
+            }
+            return copy;
+        }, AsyncDataProvider::populateArtistAsync);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        return populate(album, () -> {
+            Album copy = new Album(album.getId());
+            if (album.getTitle() != null) {
+                copy.setTitle(album.getTitle());
+            }
+            return copy;
+        }, AsyncDataProvider::populateAlbumAsync);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return populate(movie, () -> copyOf(movie), AsyncDataProvider::populateMovieAsync);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return populate(series, () -> series.hasYear()
+                ? new Series(series.getTitle(), series.getYear())
+                : new Series(series.getTitle()),
+                AsyncDataProvider::populateSeriesAsync);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return populate(episode, () -> new Episode(episode.getId(), episode.getMimeType(),
+                episode.getSeries(), episode.getSeason(), episode.getEpisode()),
+                AsyncDataProvider::populateEpisodeAsync);
+    }
+
+    // Every provider gets its own copy of the item, so that they can run at the same time.
+    private @NonNull <T> SettableFuture<Boolean> populate(@NonNull T item,
+            @NonNull Copier<T> copier, @NonNull Call<T> call) {
+        return new Lookup<>(item, copier, call, getSourcesByLatency(), mExecutor).start();
+    }
+
+    private static @NonNull Movie copyOf(@NonNull Movie movie) {
+        return movie.hasYear()
+                ? new Movie(movie.getId(), movie.getMimeType(), movie.getTitle(), movie.getYear())
+                : new Movie(movie.getId(), movie.getMimeType(), movie.getTitle());
+    }
+
+    @NonNull Executor getExecutor() {
+        return mExecutor;
+    }
+
+    @NonNull List<Source> getSourcesByLatency() {
+        List<Source> sources = new ArrayList<>(mSources);
+        Collections.sort(sources, (a, b) -> {
+            long aLatency = a.getMedianLatencyMillis();
+            long bLatency = b.getMedianLatencyMillis();
+            if (aLatency != bLatency) {
+                return aLatency < bLatency ? -1 : 1;
+            }
+            return Integer.compare(a.mIndex, b.mIndex);
+        });
+        return sources;
+    }
+
+    @FunctionalInterface
+    private interface Copier<T> {
+        @NonNull T copy();
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        @NonNull SettableFuture<Boolean> populate(@NonNull AsyncDataProvider provider,
+                @NonNull T item);
+    }
+
+    // One item being looked up. Each source is started when the hedge timer of the one before
+    // it fires, or when all those started have finished without filling in every field.
+    private static class Lookup<T> {
+        private final T mItem;
+        private final Copier<T> mCopier;
+        private final Call<T> mCall;
+        private final List<Source> mSources;
+        private final Executor mExecutor;
+        private final Metadata mBefore;
+        private final SettableFuture<Boolean> mResult = new SettableFuture<>();
+        // Null while a source is being started
+        private final List<SettableFuture<Boolean>> mFutures = new ArrayList<>();
+        private Metadata mMetadata = Metadata.NONE;
+        private Exception mError;
+        private boolean mFound;
+        private int mFinished;
+        private boolean mDone;
+
+        private Lookup(@NonNull T item, @NonNull Copier<T> copier, @NonNull Call<T> call,
+                @NonNull List<Source> sources, @NonNull Executor executor) {
+            mItem = item;
+            mCopier = copier;
+            mCall = call;
+            mSources = sources;
+            mExecutor = executor;
+            mBefore = Metadata.of(item);
+        }
+
+        private @NonNull SettableFuture<Boolean> start() {
+            mResult.addCallback(new SettableFuture.Callback<Boolean>() {
+                @Override
+                public void onSuccess(@NonNull Boolean updated) { }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    if (mResult.isCancelled()) {
+                        cancelRunning();
+                    }
+                }
+            }, Executors.directExecutor());
+            startNext(0, false);
+            return mResult;
+        }
+
+        // Starts the source at the index, unless it has been started already.
+        private void startNext(int index, boolean hedged) {
+            Source source;
+            synchronized (this) {
+                if (mDone || mFutures.size() != index || index >= mSources.size()) {
+                    return;
+                }
+                source = mSources.get(index);
+                mFutures.add(null);
+            }
+            if (hedged) {
+                Metrics.increment("metadata.composite.hedged");
+            }
+
+            T copy = mCopier.copy();
+            mBefore.applyTo(copy);
+            SettableFuture<Boolean> future = source.run(mCall, copy);
+            boolean done;
+            synchronized (this) {
+                mFutures.set(index, future);
+                done = mDone;
+            }
+            if (done) {
+                // Finished while this one was being started
+                cancel(future);
+                return;
+            }
+            if (index + 1 < mSources.size()) {
+                Executors.executeDelayed(mExecutor, () -> startNext(index + 1, true),
+                        source.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+            future.addCallback(new SettableFuture.Callback<Boolean>() {
+                @Override
+                public void onSuccess(@NonNull Boolean updated) {
+                    onFinished(copy, null);
+                }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    onFinished(copy, e);
+                }
+            }, Executors.directExecutor());
+        }
+
+        private void onFinished(@NonNull T copy, @Nullable Exception error) {
+            int started;
+            boolean done;
+            synchronized (this) {
+                if (mDone) {
+                    return;
+                }
+                ++mFinished;
+                if (error == null) {
+                    mFound = true;
+                    mMetadata = mMetadata.orElse(Metadata.of(copy).changedFrom(mBefore));
+                } else if (!(error instanceof NotFoundException) && mError == null) {
+                    mError = error;
+                }
+                started = mFutures.size();
+                // Fields the item had before count, such as a local album art
+                boolean complete = mFound && mMetadata.orElse(mBefore).isComplete(mItem);
+                if (!complete && mFinished < started) {
+                    // Wait for the others
+                    return;
+                }
+                done = complete || started == mSources.size();
+                mDone = done;
+            }
+            if (!done) {
+                startNext(started, false);
+                return;
+            }
+
+            cancelRunning();
+            if (mFound && mError != null && !mMetadata.orElse(mBefore).isComplete(mItem)) {
+                // Not an answer to keep, the provider that failed may have had the rest
+                mResult.setException(new IncompleteException("Failed to complete " + mItem,
+                        mMetadata.applyTo(mItem), mError));
+            } else if (mFound) {
+                mResult.set(mMetadata.applyTo(mItem));
+            } else if (mError != null) {
+                mResult.setException(mError);
+            } else {
+                mResult.setException(new NotFoundException("Failed to find result for " + mItem));
+            }
+        }
+
+        private void cancelRunning() {
+            List<SettableFuture<Boolean>> futures;
+            synchronized (this) {
+                mDone = true;
+                futures = new ArrayList<>(mFutures);
+            }
+            for (SettableFuture<Boolean> future : futures) {
+                if (future != null) {
+                    cancel(future);
+                }
+            }
+        }
+
+        private static void cancel(@NonNull SettableFuture<Boolean> future) {
+            if (future.cancel(false)) {
+                Metrics.increment("metadata.composite.cancelled");
+            }
+        }
+    }
+
+    private static class Source {
+        private final AsyncDataProvider mProvider;
+        private final int mIndex;
+        private final String mName;
+        private final LatencyHistogram mLatencies = new LatencyHistogram();
+
+        private Source(@NonNull AsyncDataProvider provider, int index) {
+            mProvider = provider;
+            mIndex = index;
+            mName = provider instanceof CircuitBreakerDataProvider
+                    ? ((CircuitBreakerDataProvider) provider).getName()
+                    : provider.getClass().getSimpleName();
+        }
+
+        private @NonNull <T> SettableFuture<Boolean> run(@NonNull Call<T> call,
+                @NonNull T item) {
+            long start = System.nanoTime();
+            SettableFuture<Boolean> future;
+            try {
+                future = call.populate(mProvider, item);
+            } catch (RuntimeException e) {
+                future = SettableFuture.immediateFailed(e);
+            }
+            return future.whenDone(new SettableFuture.Callback<Boolean>() {
+                @Override
+                public void onSuccess(@NonNull Boolean updated) {
+                    onFinished(start, null);
+                }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    onFinished(start, e);
+                }
+            });
+        }
+
+        private void onFinished(long start, @Nullable Exception error) {
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (error == null || error instanceof NotFoundException) {
+                // Failed calls, such as ones refused by a circuit breaker, and cancelled ones
+                // say nothing about how long the provider takes to answer
+                mLatencies.add(latencyMillis);
+            }
+            Metrics.add("metadata.composite." + mName + ".latency_ms", latencyMillis);
+            Metrics.increment("metadata.composite." + mName + ".calls");
+            warnIfFailed(error);
+        }
+
+        // Batches say nothing about how long a single call takes, so they are only counted.
+        private @NonNull SettableFuture<Set<Movie>> populateMovies(
+                @NonNull Collection<Movie> movies) {
+            Metrics.increment("metadata.composite." + mName + ".batches");
+            SettableFuture<Set<Movie>> future;
+            try {
+                future = ((BatchDataProvider) mProvider).populateMoviesAsync(movies);
+            } catch (RuntimeException e) {
+                future = SettableFuture.immediateFailed(e);
+            }
+            return future.whenDone(new SettableFuture.Callback<Set<Movie>>() {
+                @Override
+                public void onSuccess(@NonNull Set<Movie> updated) { }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    warnIfFailed(e);
+                }
+            });
+        }
+
+        private void warnIfFailed(@Nullable Exception error) {
+            boolean cancelled = error instanceof InterruptedIOException
+                    && !(error instanceof SocketTimeoutException);
+            if (error != null && !(error instanceof NotFoundException)
+                    && !(error instanceof UnavailableException) && !cancelled) {
+                Clog.w(TAG, mName + " failed", error);
+            }
+        }
+
+        private long getMedianLatencyMillis() {
+            return mLatencies.getPercentile(50);
+        }
+
+        private long getHedgeDelayMillis() {
+            return Math.max(MIN_HEDGE_DELAY_MILLIS, mLatencies.getPercentile(90));
+        }
+    }
+
+    // Movies are first looked up in batches, by the providers that can, in turn, each on its own
+    // copies. The movies left without every field are then looked up one by one by the others,
+    // all at the same time. No thread is held while waiting for any of it.
+    private static class Batch extends CompositeDataProvider implements BatchDataProvider {
+        private Batch(@NonNull Executor executor, @NonNull AsyncDataProvider... providers) {
+            super(executor, providers);
+        }
+
+        @AnyThread
+        @Override
+        public @NonNull SettableFuture<Set<Movie>> populateMoviesAsync(
+                @NonNull Collection<Movie> movies) {
+            return new MovieBatch(movies, getSourcesByLatency(), getExecutor()).start();
+        }
+    }
+
+    // The movies of one batch being looked up, see Batch.
+    private static class MovieBatch {
+        private final List<Movie> mMovies;
+        private final List<Source> mBatchSources = new ArrayList<>();
+        private final List<Source> mOthers = new ArrayList<>();
+        private final Executor mExecutor;
+        private final List<Metadata> mBefores = new ArrayList<>();
+        private final List<Metadata> mFound = new ArrayList<>();
+        private final SettableFuture<Set<Movie>> mResult = new SettableFuture<>();
+        private final List<SettableFuture<?>> mRunning = new ArrayList<>();
+        private final Set<Movie> mUpdated = new ArraySet<>();
+        private Exception mError;
+        private int mPending;
+
+        private MovieBatch(@NonNull Collection<Movie> movies, @NonNull List<Source> sources,
+                @NonNull Executor executor) {
+            mMovies = new ArrayList<>(movies);
+            mExecutor = executor;
+            for (Source source : sources) {
+                if (source.mProvider instanceof BatchDataProvider) {
+                    mBatchSources.add(source);
+                } else {
+                    mOthers.add(source);
+                }
+            }
+            for (Movie movie : mMovies) {
+                mBefores.add(Metadata.of(movie));
+                mFound.add(Metadata.NONE);
+            }
+        }
+
+        private @NonNull SettableFuture<Set<Movie>> start() {
+            mResult.addCallback(new SettableFuture.Callback<Set<Movie>>() {
+                @Override
+                public void onSuccess(@NonNull Set<Movie> updated) { }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    if (mResult.isCancelled()) {
+                        cancelRunning();
+                    }
+                }
+            }, Executors.directExecutor());
+            runBatch(0);
+            return mResult;
+        }
+
+        // Runs the batch source at the index, and the next one once it is done.
+        private void runBatch(int index) {
+            if (index == mBatchSources.size()) {
+                lookUpOthers();
+                return;
+            }
+            List<Movie> copies = new ArrayList<>();
+            for (int i = 0; i < mMovies.size(); ++i) {
+                Movie copy = copyOf(mMovies.get(i));
+                mBefores.get(i).applyTo(copy);
+                copies.add(copy);
+            }
+            SettableFuture<Set<Movie>> future = mBatchSources.get(index).populateMovies(copies);
+            if (!addRunning(future)) {
+                return;
+            }
+            future.addCallback(new SettableFuture.Callback<Set<Movie>>() {
+                @Override
+                public void onSuccess(@NonNull Set<Movie> updated) {
+                    synchronized (MovieBatch.this) {
+                        for (int i = 0; i < mMovies.size(); ++i) {
+                            mFound.set(i, mFound.get(i).orElse(
+                                    Metadata.of(copies.get(i)).changedFrom(mBefores.get(i))));
+                        }
+                    }
+                    runBatch(index + 1);
+                }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    onError(e);
+                    runBatch(index + 1);
+                }
+            }, Executors.directExecutor());
+        }
+
+        private void lookUpOthers() {
+            List<Movie> pending = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < mMovies.size(); ++i) {
+                    Movie movie = mMovies.get(i);
+                    if (mFound.get(i).applyTo(movie)) {
+                        mUpdated.add(movie);
+                    }
+                    if (!mOthers.isEmpty() && !Metadata.of(movie).isComplete(movie)) {
+                        pending.add(movie);
+                    }
+                }
+                mPending = pending.size();
+            }
+            if (pending.isEmpty()) {
+                finish();
+                return;
+            }
+            for (Movie movie : pending) {
+                SettableFuture<Boolean> future = new Lookup<>(movie, () -> copyOf(movie),
+                        AsyncDataProvider::populateMovieAsync, mOthers, mExecutor).start();
+                if (!addRunning(future)) {
+                    return;
+                }
+                future.addCallback(new SettableFuture.Callback<Boolean>() {
+                    @Override
+                    public void onSuccess(@NonNull Boolean updated) {
+                        onLookupDone(movie, updated);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        boolean updated = false;
+                        if (e instanceof IncompleteException) {
+                            updated = ((IncompleteException) e).isUpdated();
+                            e = (Exception) e.getCause();
+                        }
+                        onError(e);
+                        onLookupDone(movie, updated);
+                    }
+                }, Executors.directExecutor());
+            }
+        }
+
+        private void onLookupDone(@NonNull Movie movie, boolean updated) {
+            synchronized (this) {
+                if (updated) {
+                    mUpdated.add(movie);
+                }
+                if (--mPending > 0) {
+                    return;
+                }
+            }
+            finish();
+        }
+
+        private synchronized void onError(@NonNull Exception e) {
+            if (!(e instanceof NotFoundException) && mError == null) {
+                mError = e;
+            }
+        }
+
+        private void finish() {
+            Set<Movie> updated;
+            Exception error;
+            synchronized (this) {
+                updated = mUpdated;
+                error = mError;
+            }
+            if (error == null) {
+                mResult.set(updated);
+                return;
+            } else if (updated.isEmpty()) {
+                mResult.setException(error);
+                return;
+            }
+            for (Movie movie : mMovies) {
+                if (!Metadata.of(movie).isComplete(movie)) {
+                    // A provider that failed may have had the rest
+                    mResult.setException(
+                            new IncompleteException("Failed to complete " + movie, true, error));
+                    return;
+                }
+            }
+            mResult.set(updated);
+        }
+
+        // Returns false, having cancelled the future, if the batch has been cancelled.
+        private boolean addRunning(@NonNull SettableFuture<?> future) {
+            synchronized (this) {
+                mRunning.add(future);
+            }
+            if (mResult.isCancelled()) {
+                future.cancel(false);
+                return false;
+            }
+            return true;
+        }
+
+        private void cancelRunning() {
+            List<SettableFuture<?>> running;
+            synchronized (this) {
+                running = new ArrayList<>(mRunning);
+            }
+            for (SettableFuture<?> future : running) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    // Counts latencies in buckets that double in width, from 16 ms up to over 4 minutes. Counts
+    // are halved once there are many, so that recent calls weigh more.
+    private static class LatencyHistogram {
+        private static final int BUCKET_COUNT = 15;
+        private static final int MIN_BUCKET_SHIFT = 4;
+        private static final int MIN_SAMPLES = 5;
+        private static final int MAX_SAMPLES = 1000;
+        private static final long DEFAULT_LATENCY_MILLIS = 1000;
+
+        private final int[] mCounts = new int[BUCKET_COUNT];
+        private int mTotal;
+
+        private synchronized void add(long latencyMillis) {
+            int bucket = 0;
+            while (bucket < BUCKET_COUNT - 1
+                    && latencyMillis >= 1L << (bucket + MIN_BUCKET_SHIFT)) {
+                ++bucket;
+            }
+            ++mCounts[bucket];
+            if (++mTotal > MAX_SAMPLES) {
+                mTotal = 0;
+                for (int i = 0; i < BUCKET_COUNT; ++i) {
+                    mCounts[i] /= 2;
+                    mTotal += mCounts[i];
+                }
+            }
+        }
+
+        // Returns the upper bound of the bucket the percentile falls in.
+        private synchronized long getPercentile(int percentile) {
+            if (mTotal < MIN_SAMPLES) {
+                return DEFAULT_LATENCY_MILLIS;
+            }
+            int rank = (mTotal * percentile + 99) / 100;
+            int count = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                count += mCounts[i];
+                if (count >= rank) {
+                    return 1L << (i + MIN_BUCKET_SHIFT);
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1 + MIN_BUCKET_SHIFT);
+        }
+    }
+}
@@ -101,4 +101,13 @@ public class Episode extends Video {
     void setLoaded() {
         mLoaded = true;
     }
+
+    // Returns whether anything was dropped, which MediaDb.loadData() puts back on demand.
+    boolean trimMemory() {
+        if (mDescription == null) {
+            return false;
+        }
+        mDescription = null;
+        return true;
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.pump.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+// Runs the calls of a DataProvider that can only block on an executor, for callers that use the
+// asynchronous calls of any provider.
+@AnyThread
+class ExecutorDataProvider implements AsyncDataProvider {
+    private final DataProvider mProvider;
+    private final Executor mExecutor;
+
+    ExecutorDataProvider(@NonNull DataProvider provider, @NonNull Executor executor) {
+        mProvider = provider;
+        mExecutor = executor;
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateArtist(@NonNull Artist artist) throws IOException {
+        return mProvider.populateArtist(artist);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateAlbum(@NonNull Album album) throws IOException {
+        return mProvider.populateAlbum(album);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateMovie(@NonNull Movie movie) throws IOException {
+        return mProvider.populateMovie(movie);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateSeries(@NonNull Series series) throws IOException {
+        return mProvider.populateSeries(series);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean populateEpisode(@NonNull Episode episode) throws IOException {
+        return mProvider.populateEpisode(episode);
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        return SettableFuture.submit(mExecutor, () -> mProvider.populateArtist(artist));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        return SettableFuture.submit(mExecutor, () -> mProvider.populateAlbum(album));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return SettableFuture.submit(mExecutor, () -> mProvider.populateMovie(movie));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return SettableFuture.submit(mExecutor, () -> mProvider.populateSeries(series));
+    }
+
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return SettableFuture.submit(mExecutor, () -> mProvider.populateEpisode(episode));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+// Thrown when some of the fields of an item were found, but a DataProvider that might have had
+// the others failed, see CompositeDataProvider. The fields found have been set on the item, and
+// the cause tells whether trying again may find the rest.
+public class IncompleteException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean mUpdated;
+
+    public IncompleteException(@NonNull String message, boolean updated,
+            @NonNull Exception cause) {
+        super(message, cause);
+        mUpdated = updated;
+    }
+
+    // Whether the item changed.
+    public boolean isUpdated() {
+        return mUpdated;
+    }
+}
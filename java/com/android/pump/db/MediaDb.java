@@ -25,8 +25,12 @@ import androidx.annotation.UiThread;
 import androidx.collection.ArraySet;
 
 import com.android.pump.concurrent.Executors;
+import com.android.pump.concurrent.RetryScheduler;
+import com.android.pump.concurrent.SettableFuture;
 import com.android.pump.util.Clog;
+import com.android.pump.util.Http;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,19 +38,26 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @UiThread
 public class MediaDb implements MediaProvider {
     private static final String TAG = Clog.tag(MediaDb.class);
 
+    // Lookups for a batch provider are gathered for this long, or until there are this many
+    private static final long BATCH_DELAY_MILLIS = 100;
+    private static final int MAX_BATCH_SIZE = 50;
+
     private final AtomicBoolean mLoaded = new AtomicBoolean();
 
     private final Executor mExecutor;
+    private final RetryScheduler mRetryScheduler;
 
     private final AudioStore mAudioStore;
     private final VideoStore mVideoStore;
     private final DataProvider mDataProvider;
+    private final AsyncDataProvider mAsyncDataProvider;
 
     private final List<Audio> mAudios = new ArrayList<>();
     private final List<Artist> mArtists = new ArrayList<>();
@@ -59,6 +70,10 @@ public class MediaDb implements MediaProvider {
     private final List<Episode> mEpisodes = new ArrayList<>();
     private final List<Other> mOthers = new ArrayList<>();
 
+    private final Set<Movie> mMovieBatch = new ArraySet<>();
+    // Loaded items that trimMemory() dropped fields from
+    private final Set<Object> mTrimmed = new ArraySet<>();
+
     private final Set<UpdateCallback> mAudioUpdateCallbacks = new ArraySet<>();
     private final Set<UpdateCallback> mArtistUpdateCallbacks = new ArraySet<>();
     private final Set<UpdateCallback> mAlbumUpdateCallbacks = new ArraySet<>();
@@ -76,11 +91,30 @@ public class MediaDb implements MediaProvider {
         void onItemsRemoved(int index, int count);
     }
 
+    // Asks the data provider about an item. The future tells whether the item was updated.
+    @FunctionalInterface
+    private interface Lookup {
+        @NonNull SettableFuture<Boolean> start();
+    }
+
+    // Loads what is stored locally about an item, after its lookup. Complete is false if the
+    // lookup failed, and should be tried again the next time the item is loaded.
+    @FunctionalInterface
+    private interface LocalLoad {
+        void run(boolean updated, boolean complete);
+    }
+
     public MediaDb(@NonNull ContentResolver contentResolver, @NonNull DataProvider dataProvider,
-            @NonNull Executor executor) {
-        Clog.i(TAG, "MediaDb(" + contentResolver + ", " + dataProvider + ", " + executor + ")");
+            @NonNull Executor executor, @NonNull File cacheDir) {
+        Clog.i(TAG, "MediaDb(" + contentResolver + ", " + dataProvider + ", " + executor
+                + ", " + cacheDir + ")");
         mDataProvider = dataProvider;
+        // Lookups start on the executor, where a provider that can only block may as well run
+        mAsyncDataProvider = dataProvider instanceof AsyncDataProvider
+                ? (AsyncDataProvider) dataProvider
+                : new ExecutorDataProvider(dataProvider, Executors.directExecutor());
         mExecutor = executor;
+        mRetryScheduler = new RetryScheduler(executor);
 
         mAudioStore = new AudioStore(contentResolver, new AudioStore.ChangeListener() {
             @Override
@@ -129,7 +163,7 @@ public class MediaDb implements MediaProvider {
             public void onOthersAdded(@NonNull Collection<Other> others) {
                 Executors.uiThreadExecutor().execute(() -> addOthers(others));
             }
-        }, this);
+        }, this, cacheDir);
     }
 
     public void addAudioUpdateCallback(@NonNull UpdateCallback callback) {
@@ -215,6 +249,45 @@ public class MediaDb implements MediaProvider {
         mExecutor.execute(mVideoStore::load);
     }
 
+    public void flush() {
+        mExecutor.execute(mVideoStore::flush);
+    }
+
+    // Drops the descriptions and synopses of loaded items, which loadData() puts back from the
+    // data provider's cache without looking the items up again. Items that are not loaded are
+    // left alone, as their lookups may still fill them in.
+    public void trimMemory() {
+        if (!(mDataProvider instanceof CachedDataProvider)) {
+            // Nothing to put them back from
+            return;
+        }
+        for (Artist artist : mArtists) {
+            if (artist.isLoaded() && artist.trimMemory()) {
+                mTrimmed.add(artist);
+            }
+        }
+        for (Album album : mAlbums) {
+            if (album.isLoaded() && album.trimMemory()) {
+                mTrimmed.add(album);
+            }
+        }
+        for (Movie movie : mMovies) {
+            if (movie.isLoaded() && movie.trimMemory()) {
+                mTrimmed.add(movie);
+            }
+        }
+        for (Series series : mSeries) {
+            if (series.isLoaded() && series.trimMemory()) {
+                mTrimmed.add(series);
+            }
+        }
+        for (Episode episode : mEpisodes) {
+            if (episode.isLoaded() && episode.trimMemory()) {
+                mTrimmed.add(episode);
+            }
+        }
+    }
+
     public @NonNull List<Audio> getAudios() {
         return Collections.unmodifiableList(mAudios);
     }
@@ -260,40 +333,40 @@ public class MediaDb implements MediaProvider {
 
     public void loadData(@NonNull Artist artist) {
         // TODO(b/123707632) Ensure no concurrent runs for the same item !!
-        if (artist.isLoaded()) return;
-
-        mExecutor.execute(() -> {
-            try {
-                boolean updated = mDataProvider.populateArtist(artist);
+        if (artist.isLoaded()) {
+            restoreIfTrimmed(artist, () -> updateArtist(artist));
+            return;
+        }
 
-                updated |= mAudioStore.loadData(artist);
+        executeLookup(artist, () -> mAsyncDataProvider.populateArtistAsync(artist),
+                (updated, complete) -> {
+            updated |= mAudioStore.loadData(artist);
 
+            if (complete) {
                 artist.setLoaded();
-                if (updated) {
-                    Executors.uiThreadExecutor().execute(() -> updateArtist(artist));
-                }
-            } catch (IOException e) {
-                Clog.e(TAG, "Search for " + artist + " failed", e);
+            }
+            if (updated) {
+                Executors.uiThreadExecutor().execute(() -> updateArtist(artist));
             }
         });
     }
 
     public void loadData(@NonNull Album album) {
         // TODO(b/123707632) Ensure no concurrent runs for the same item !!
-        if (album.isLoaded()) return;
-
-        mExecutor.execute(() -> {
-            try {
-                boolean updated = mDataProvider.populateAlbum(album);
+        if (album.isLoaded()) {
+            restoreIfTrimmed(album, () -> updateAlbum(album));
+            return;
+        }
 
-                updated |= mAudioStore.loadData(album);
+        executeLookup(album, () -> mAsyncDataProvider.populateAlbumAsync(album),
+                (updated, complete) -> {
+            updated |= mAudioStore.loadData(album);
 
+            if (complete) {
                 album.setLoaded();
-                if (updated) {
-                    Executors.uiThreadExecutor().execute(() -> updateAlbum(album));
-                }
-            } catch (IOException e) {
-                Clog.e(TAG, "Search for " + album + " failed", e);
+            }
+            if (updated) {
+                Executors.uiThreadExecutor().execute(() -> updateAlbum(album));
             }
         });
     }
@@ -329,40 +402,52 @@ public class MediaDb implements MediaProvider {
     // TODO(b/123707018) Merge with loadData(episode)/loadData(other)
     public void loadData(@NonNull Movie movie) {
         // TODO(b/123707632) Ensure no concurrent runs for the same item !!
-        if (movie.isLoaded()) return;
+        if (movie.isLoaded()) {
+            restoreIfTrimmed(movie, () -> updateMovie(movie));
+            return;
+        }
 
-        mExecutor.execute(() -> {
-            try {
-                boolean updated = mDataProvider.populateMovie(movie);
+        if (mDataProvider instanceof BatchDataProvider) {
+            if (mMovieBatch.isEmpty()) {
+                Executors.executeDelayed(Executors.uiThreadExecutor(), this::executeMovieBatch,
+                        BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            mMovieBatch.add(movie);
+            if (mMovieBatch.size() >= MAX_BATCH_SIZE) {
+                executeMovieBatch();
+            }
+            return;
+        }
 
-                updated |= mVideoStore.loadData(movie);
+        executeLookup(movie, () -> mAsyncDataProvider.populateMovieAsync(movie),
+                (updated, complete) -> {
+            updated |= mVideoStore.loadData(movie);
 
+            if (complete) {
                 movie.setLoaded();
-                if (updated) {
-                    Executors.uiThreadExecutor().execute(() -> updateMovie(movie));
-                }
-            } catch (IOException e) {
-                Clog.e(TAG, "Search for " + movie + " failed", e);
+            }
+            if (updated) {
+                Executors.uiThreadExecutor().execute(() -> updateMovie(movie));
             }
         });
     }
 
     public void loadData(@NonNull Series series) {
         // TODO(b/123707632) Ensure no concurrent runs for the same item !!
-        if (series.isLoaded()) return;
-
-        mExecutor.execute(() -> {
-            try {
-                boolean updated = mDataProvider.populateSeries(series);
+        if (series.isLoaded()) {
+            restoreIfTrimmed(series, () -> updateSeries(series));
+            return;
+        }
 
-                updated |= mVideoStore.loadData(series);
+        executeLookup(series, () -> mAsyncDataProvider.populateSeriesAsync(series),
+                (updated, complete) -> {
+            updated |= mVideoStore.loadData(series);
 
+            if (complete) {
                 series.setLoaded();
-                if (updated) {
-                    Executors.uiThreadExecutor().execute(() -> updateSeries(series));
-                }
-            } catch (IOException e) {
-                Clog.e(TAG, "Search for " + series + " failed", e);
+            }
+            if (updated) {
+                Executors.uiThreadExecutor().execute(() -> updateSeries(series));
             }
         });
     }
@@ -370,20 +455,20 @@ public class MediaDb implements MediaProvider {
     // TODO(b/123707018) Merge with loadData(movie)/loadData(other)
     public void loadData(@NonNull Episode episode) {
         // TODO(b/123707632) Ensure no concurrent runs for the same item !!
-        if (episode.isLoaded()) return;
-
-        mExecutor.execute(() -> {
-            try {
-                boolean updated = mDataProvider.populateEpisode(episode);
+        if (episode.isLoaded()) {
+            restoreIfTrimmed(episode, () -> updateEpisode(episode));
+            return;
+        }
 
-                updated |= mVideoStore.loadData(episode);
+        executeLookup(episode, () -> mAsyncDataProvider.populateEpisodeAsync(episode),
+                (updated, complete) -> {
+            updated |= mVideoStore.loadData(episode);
 
+            if (complete) {
                 episode.setLoaded();
-                if (updated) {
-                    Executors.uiThreadExecutor().execute(() -> updateEpisode(episode));
-                }
-            } catch (IOException e) {
-                Clog.e(TAG, "Search for " + episode + " failed", e);
+            }
+            if (updated) {
+                Executors.uiThreadExecutor().execute(() -> updateEpisode(episode));
             }
         });
     }
@@ -617,6 +702,103 @@ public class MediaDb implements MediaProvider {
         }
     }
 
+    private void executeMovieBatch() {
+        if (mMovieBatch.isEmpty()) {
+            // Already sent when it filled up
+            return;
+        }
+        List<Movie> movies = new ArrayList<>(mMovieBatch);
+        mMovieBatch.clear();
+
+        BatchDataProvider dataProvider = (BatchDataProvider) mDataProvider;
+        Set<Movie> updatedMovies = new ArraySet<>();
+        executeLookup(movies.size() + " movies",
+                () -> dataProvider.populateMoviesAsync(movies).then(updatedMovies::addAll),
+                (batchUpdated, complete) -> {
+            for (Movie movie : movies) {
+                // Which movies an incomplete batch updated is not known
+                boolean updated = batchUpdated || updatedMovies.contains(movie);
+
+                updated |= mVideoStore.loadData(movie);
+
+                if (complete) {
+                    movie.setLoaded();
+                }
+                if (updated) {
+                    Executors.uiThreadExecutor().execute(() -> updateMovie(movie));
+                }
+            }
+        });
+    }
+
+    // Puts back, on the executor, what trimMemory() dropped from a loaded item.
+    private void restoreIfTrimmed(@NonNull Object item, @NonNull Runnable update) {
+        if (!mTrimmed.remove(item)) {
+            return;
+        }
+        CachedDataProvider dataProvider = (CachedDataProvider) mDataProvider;
+        mExecutor.execute(() -> {
+            if (dataProvider.restore(item)) {
+                Executors.uiThreadExecutor().execute(update);
+            }
+        });
+    }
+
+    // Starts a lookup on the executor, and once it is done runs the local load there. No thread
+    // is held while the lookup waits for the network, unless the provider can only block. When
+    // the server asks to come back later, the lookup is scheduled again. If the lookup fails for
+    // good, or the provider is unavailable, the local load still runs.
+    private void executeLookup(@NonNull Object item, @NonNull Lookup lookup,
+            @NonNull LocalLoad localLoad) {
+        mExecutor.execute(new Runnable() {
+            private int mAttempt;
+
+            @Override
+            public void run() {
+                Runnable retry = this;
+                lookup.start().addCallback(new SettableFuture.Callback<Boolean>() {
+                    @Override
+                    public void onSuccess(@NonNull Boolean updated) {
+                        localLoad.run(updated, true);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        boolean updated = false;
+                        if (e instanceof IncompleteException) {
+                            // Some of it was found, the rest may be found by trying again
+                            updated = ((IncompleteException) e).isUpdated();
+                            e = (Exception) e.getCause();
+                        }
+                        if (e instanceof RuntimeException) {
+                            throw (RuntimeException) e;
+                        }
+                        boolean complete = false;
+                        if (e instanceof NotFoundException) {
+                            // Asking again will not help
+                            Clog.i(TAG, "Search for " + item + " found nothing", e);
+                            complete = true;
+                        } else if (e instanceof UnavailableException) {
+                            Clog.i(TAG, "Search for " + item + " skipped", e);
+                        } else {
+                            long delay = Http.getRetryDelay((IOException) e);
+                            if (delay >= 0
+                                    && mRetryScheduler.schedule(retry, mAttempt++, delay)) {
+                                Clog.w(TAG, "Search for " + item + " failed, retrying", e);
+                                if (updated) {
+                                    localLoad.run(true, false);
+                                }
+                                return;
+                            }
+                            Clog.e(TAG, "Search for " + item + " failed", e);
+                        }
+                        localLoad.run(updated, complete);
+                    }
+                }, mExecutor);
+            }
+        });
+    }
+
     private void addEpisodes(@NonNull Collection<Episode> episodes) {
         int episodesIndex = mEpisodes.size();
         int episodesCount = 0;
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import android.net.Uri;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+// The fields a DataProvider fills in, read from or written to any kind of item.
+@AnyThread
+final class Metadata {
+    static final Metadata NONE = new Metadata(null, null, null);
+
+    private final String mImageUri;
+    private final String mDescription;
+    private final String mSynopsis;
+
+    Metadata(@Nullable String imageUri, @Nullable String description, @Nullable String synopsis) {
+        mImageUri = imageUri;
+        mDescription = description;
+        mSynopsis = synopsis;
+    }
+
+    static @NonNull Metadata of(@NonNull Object item) {
+        Uri imageUri = null;
+        String description = null;
+        String synopsis = null;
+        if (item instanceof Artist) {
+            imageUri = ((Artist) item).getHeadshotUri();
+            description = ((Artist) item).getDescription();
+        } else if (item instanceof Album) {
+            imageUri = ((Album) item).getAlbumArtUri();
+            description = ((Album) item).getDescription();
+        } else if (item instanceof Movie) {
+            imageUri = ((Movie) item).getPosterUri();
+            description = ((Movie) item).getDescription();
+            synopsis = ((Movie) item).getSynopsis();
+        } else if (item instanceof Series) {
+            imageUri = ((Series) item).getPosterUri();
+            description = ((Series) item).getDescription();
+        } else if (item instanceof Episode) {
+            imageUri = ((Episode) item).getPosterUri();
+            description = ((Episode) item).getDescription();
+        }
+        return new Metadata(imageUri == null ? null : imageUri.toString(), description, synopsis);
+    }
+
+    @Nullable String getImageUri() {
+        return mImageUri;
+    }
+
+    @Nullable String getDescription() {
+        return mDescription;
+    }
+
+    @Nullable String getSynopsis() {
+        return mSynopsis;
+    }
+
+    boolean isEmpty() {
+        return mImageUri == null && mDescription == null && mSynopsis == null;
+    }
+
+    // Whether every field the item has is set.
+    boolean isComplete(@NonNull Object item) {
+        return mImageUri != null && mDescription != null
+                && (mSynopsis != null || !(item instanceof Movie));
+    }
+
+    // Returns the fields that differ from before, which are the ones a provider filled in.
+    @NonNull Metadata changedFrom(@NonNull Metadata before) {
+        return new Metadata(changed(before.mImageUri, mImageUri),
+                changed(before.mDescription, mDescription), changed(before.mSynopsis, mSynopsis));
+    }
+
+    // Returns these fields, with the missing ones taken from other.
+    @NonNull Metadata orElse(@NonNull Metadata other) {
+        return new Metadata(mImageUri != null ? mImageUri : other.mImageUri,
+                mDescription != null ? mDescription : other.mDescription,
+                mSynopsis != null ? mSynopsis : other.mSynopsis);
+    }
+
+    // Sets the fields that are set here. Returns whether the item changed.
+    boolean applyTo(@NonNull Object item) {
+        boolean updated = false;
+        Uri imageUri = mImageUri == null ? null : Uri.parse(mImageUri);
+        if (item instanceof Artist) {
+            Artist artist = (Artist) item;
+            if (imageUri != null) updated |= artist.setHeadshotUri(imageUri);
+            if (mDescription != null) updated |= artist.setDescription(mDescription);
+        } else if (item instanceof Album) {
+            Album album = (Album) item;
+            if (imageUri != null) updated |= album.setAlbumArtUri(imageUri);
+            if (mDescription != null) updated |= album.setDescription(mDescription);
+        } else if (item instanceof Movie) {
+            Movie movie = (Movie) item;
+            if (imageUri != null) updated |= movie.setPosterUri(imageUri);
+            if (mDescription != null) updated |= movie.setDescription(mDescription);
+            if (mSynopsis != null) updated |= movie.setSynopsis(mSynopsis);
+        } else if (item instanceof Series) {
+            Series series = (Series) item;
+            if (imageUri != null) updated |= series.setPosterUri(imageUri);
+            if (mDescription != null) updated |= series.setDescription(mDescription);
+        } else if (item instanceof Episode) {
+            Episode episode = (Episode) item;
+            if (imageUri != null) updated |= episode.setPosterUri(imageUri);
+            if (mDescription != null) updated |= episode.setDescription(mDescription);
+        }
+        return updated;
+    }
+
+    private static @Nullable String changed(@Nullable String before, @Nullable String after) {
+        return after == null || after.equals(before) ? null : after;
+    }
+}
@@ -121,4 +121,14 @@ public class Movie extends Video {
     void setLoaded() {
         mLoaded = true;
     }
+
+    // Returns whether anything was dropped, which MediaDb.loadData() puts back on demand.
+    boolean trimMemory() {
+        if (mSynopsis == null && mDescription == null) {
+            return false;
+        }
+        mSynopsis = null;
+        mDescription = null;
+        return true;
+    }
 }
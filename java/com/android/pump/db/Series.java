@@ -126,6 +126,15 @@ public class Series {
         mLoaded = true;
     }
 
+    // Returns whether anything was dropped, which MediaDb.loadData() puts back on demand.
+    boolean trimMemory() {
+        if (mDescription == null) {
+            return false;
+        }
+        mDescription = null;
+        return true;
+    }
+
     @Override
     public final boolean equals(@Nullable Object obj) {
         return obj instanceof Series && mTitle.equals(((Series) obj).mTitle)
@@ -25,6 +25,10 @@ public abstract class Video {
     private final long mId;
     private final String mMimeType;
 
+    // TODO(b/123706949) Lock mutable fields to ensure consistent updates
+    private int mWidth;
+    private int mHeight;
+
     Video(long id, @NonNull String mimeType) {
         mId = id;
         mMimeType = mimeType;
@@ -38,6 +42,33 @@ public abstract class Video {
         return mMimeType;
     }
 
+    public boolean hasSize() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    public int getWidth() {
+        if (!hasSize()) {
+            throw new IllegalStateException();
+        }
+        return mWidth;
+    }
+
+    public int getHeight() {
+        if (!hasSize()) {
+            throw new IllegalStateException();
+        }
+        return mHeight;
+    }
+
+    boolean setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        return true;
+    }
+
     @Override
     public final boolean equals(@Nullable Object obj) {
         return obj instanceof Video && mId == ((Video) obj).mId;
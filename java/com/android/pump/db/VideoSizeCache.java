@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.AtomicFile;
+
+import com.android.pump.util.Clog;
+import com.android.pump.util.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Display sizes of videos, with rotation applied, keyed by media id. Each size is packed into a
+// single int, and the ids are kept sorted for binary search.
+@WorkerThread
+class VideoSizeCache {
+    private static final String TAG = Clog.tag(VideoSizeCache.class);
+
+    private static final int VERSION = 1;
+    private static final int MAX_DIMENSION = 0xffff;
+
+    private final AtomicFile mFile;
+    private long[] mIds = new long[0];
+    private int[] mSizes = new int[0];
+    private int mCount;
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    VideoSizeCache(@NonNull File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    synchronized boolean has(long id) {
+        load();
+        return Arrays.binarySearch(mIds, 0, mCount, id) >= 0;
+    }
+
+    synchronized int getWidth(long id) {
+        return get(id) >>> 16;
+    }
+
+    synchronized int getHeight(long id) {
+        return get(id) & MAX_DIMENSION;
+    }
+
+    synchronized void put(long id, int width, int height) {
+        if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            return;
+        }
+        load();
+        int size = width << 16 | height;
+        int index = Arrays.binarySearch(mIds, 0, mCount, id);
+        if (index >= 0) {
+            if (mSizes[index] != size) {
+                mSizes[index] = size;
+                mDirty = true;
+            }
+            return;
+        }
+
+        index = -(index + 1);
+        if (mCount == mIds.length) {
+            int capacity = Math.max(16, mCount * 2);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+        }
+        System.arraycopy(mIds, index, mIds, index + 1, mCount - index);
+        System.arraycopy(mSizes, index, mSizes, index + 1, mCount - index);
+        mIds[index] = id;
+        mSizes[index] = size;
+        mCount++;
+        mDirty = true;
+    }
+
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(VERSION);
+            out.writeInt(mCount);
+            for (int i = 0; i < mCount; ++i) {
+                out.writeLong(mIds[i]);
+                out.writeInt(mSizes[i]);
+            }
+            out.flush();
+            mFile.finishWrite(fileOutputStream);
+            mDirty = false;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to save video sizes", e);
+            if (fileOutputStream != null) {
+                mFile.failWrite(fileOutputStream);
+            }
+        }
+    }
+
+    private int get(long id) {
+        load();
+        int index = Arrays.binarySearch(mIds, 0, mCount, id);
+        if (index < 0) {
+            throw new IllegalArgumentException("No size for video with id " + id);
+        }
+        return mSizes[index];
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                return;
+            }
+            long[] ids = new long[count];
+            int[] sizes = new int[count];
+            for (int i = 0; i < count; ++i) {
+                ids[i] = in.readLong();
+                sizes[i] = in.readInt();
+            }
+            mIds = ids;
+            mSizes = sizes;
+            mCount = count;
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to load video sizes", e);
+        } finally {
+            IoUtils.close(in);
+        }
+    }
+}
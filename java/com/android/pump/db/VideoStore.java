@@ -17,10 +17,13 @@
 package com.android.pump.db;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import androidx.annotation.AnyThread;
@@ -30,8 +33,11 @@ import androidx.annotation.WorkerThread;
 
 import com.android.pump.provider.Query;
 import com.android.pump.util.Clog;
+import com.android.pump.util.IoUtils;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -41,6 +47,8 @@ class VideoStore extends ContentObserver {
 
     // TODO Replace the following with MediaStore.Video.Media.RELATIVE_PATH throughout the code.
     private static final String RELATIVE_PATH = "relative_path";
+    // TODO Replace the following with MediaStore.Video.Media.ORIENTATION throughout the code.
+    private static final String ORIENTATION = "orientation";
 
     // TODO Replace with Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q throughout the code.
     private static boolean isRunningQ() {
@@ -52,6 +60,7 @@ class VideoStore extends ContentObserver {
     private final ContentResolver mContentResolver;
     private final ChangeListener mChangeListener;
     private final MediaProvider mMediaProvider;
+    private final VideoSizeCache mSizeCache;
 
     interface ChangeListener {
         void onMoviesAdded(@NonNull Collection<Movie> movies);
@@ -62,14 +71,15 @@ class VideoStore extends ContentObserver {
 
     @AnyThread
     VideoStore(@NonNull ContentResolver contentResolver, @NonNull ChangeListener changeListener,
-            @NonNull MediaProvider mediaProvider) {
+            @NonNull MediaProvider mediaProvider, @NonNull File cacheDir) {
         super(null);
 
         Clog.i(TAG, "VideoStore(" + contentResolver + ", " + changeListener
-                + ", " + mediaProvider + ")");
+                + ", " + mediaProvider + ", " + cacheDir + ")");
         mContentResolver = contentResolver;
         mChangeListener = changeListener;
         mMediaProvider = mediaProvider;
+        mSizeCache = new VideoSizeCache(new File(cacheDir, "video_sizes"));
 
         // TODO(b/123706961) Do we need content observer for other content uris? (E.g. thumbnail)
         mContentResolver.registerContentObserver(MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
@@ -106,7 +116,10 @@ class VideoStore extends ContentObserver {
                     MediaStore.Video.Media._ID,
                     MediaStore.Video.Media.MIME_TYPE,
                     RELATIVE_PATH,
-                    MediaStore.Video.Media.DISPLAY_NAME
+                    MediaStore.Video.Media.DISPLAY_NAME,
+                    MediaStore.Video.Media.WIDTH,
+                    MediaStore.Video.Media.HEIGHT,
+                    ORIENTATION
                 };
             } else {
                 projection = new String[] {
@@ -123,6 +136,9 @@ class VideoStore extends ContentObserver {
                     int dataColumn;
                     int relativePathColumn;
                     int displayNameColumn;
+                    int widthColumn;
+                    int heightColumn;
+                    int orientationColumn;
                     int mimeTypeColumn = cursor.getColumnIndexOrThrow(
                             MediaStore.Video.Media.MIME_TYPE);
 
@@ -131,10 +147,17 @@ class VideoStore extends ContentObserver {
                         relativePathColumn = cursor.getColumnIndexOrThrow(RELATIVE_PATH);
                         displayNameColumn = cursor.getColumnIndexOrThrow(
                                 MediaStore.Video.Media.DISPLAY_NAME);
+                        widthColumn = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.WIDTH);
+                        heightColumn = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.HEIGHT);
+                        orientationColumn = cursor.getColumnIndexOrThrow(ORIENTATION);
                     } else {
                         dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DATA);
                         relativePathColumn = -1;
                         displayNameColumn = -1;
+                        // Without the orientation the stored size can't be trusted
+                        widthColumn = -1;
+                        heightColumn = -1;
+                        orientationColumn = -1;
                     }
 
                     for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
@@ -150,6 +173,19 @@ class VideoStore extends ContentObserver {
                             String data = cursor.getString(dataColumn);
                             file = new File(data);
                         }
+                        if (widthColumn != -1 && !cursor.isNull(widthColumn)
+                                && !cursor.isNull(heightColumn)) {
+                            int width = cursor.getInt(widthColumn);
+                            int height = cursor.getInt(heightColumn);
+                            int rotation = cursor.getInt(orientationColumn);
+                            if (rotation == 90 || rotation == 270) {
+                                mSizeCache.put(id, height, width);
+                            } else {
+                                mSizeCache.put(id, width, height);
+                            }
+                        }
+
+                        Video video;
                         Query query = Query.parse(Uri.fromFile(file));
                         if (query.isMovie()) {
                             Movie movie;
@@ -159,6 +195,7 @@ class VideoStore extends ContentObserver {
                                 movie = new Movie(id, mimeType, query.getName());
                             }
                             movies.add(movie);
+                            video = movie;
                         } else if (query.isEpisode()) {
                             Series serie = null;
                             for (Series s : series) {
@@ -183,9 +220,15 @@ class VideoStore extends ContentObserver {
                             episodes.add(episode);
 
                             serie.addEpisode(episode);
+                            video = episode;
                         } else {
                             Other other = new Other(id, mimeType, query.getName());
                             others.add(other);
+                            video = other;
+                        }
+
+                        if (mSizeCache.has(id)) {
+                            video.setSize(mSizeCache.getWidth(id), mSizeCache.getHeight(id));
                         }
                     }
                 } finally {
@@ -193,6 +236,7 @@ class VideoStore extends ContentObserver {
                 }
             }
         }
+        mSizeCache.save();
 
         mChangeListener.onMoviesAdded(movies);
         mChangeListener.onSeriesAdded(series);
@@ -267,6 +311,10 @@ class VideoStore extends ContentObserver {
             }
         }
 
+        if (!other.hasSize()) {
+            updated |= loadSize(other);
+        }
+
         Uri thumbnailUri = getThumbnailUri(other.getId());
         if (thumbnailUri != null) {
             updated |= other.setThumbnailUri(thumbnailUri);
@@ -275,6 +323,51 @@ class VideoStore extends ContentObserver {
         return updated;
     }
 
+    void flush() {
+        mSizeCache.save();
+    }
+
+    // Reads the size from the container header, without decoding any frames.
+    private boolean loadSize(@NonNull Video video) {
+        Uri uri = ContentUris.withAppendedId(
+                MediaStore.Video.Media.EXTERNAL_CONTENT_URI, video.getId());
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = mContentResolver.openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                throw new FileNotFoundException("Failed to open " + uri);
+            }
+            retriever.setDataSource(pfd.getFileDescriptor());
+            String width = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+            String height = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+            String rotation = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            if (width == null || height == null) {
+                return false;
+            }
+            if ("90".equals(rotation) || "270".equals(rotation)) {
+                mSizeCache.put(video.getId(), Integer.parseInt(height), Integer.parseInt(width));
+            } else {
+                mSizeCache.put(video.getId(), Integer.parseInt(width), Integer.parseInt(height));
+            }
+        } catch (IOException | RuntimeException e) {
+            // setDataSource() throws RuntimeException for files it can't handle
+            Clog.w(TAG, "Failed to read size of " + uri, e);
+            return false;
+        } finally {
+            retriever.release();
+            IoUtils.close(pfd);
+        }
+        if (!mSizeCache.has(video.getId())) {
+            return false;
+        }
+        return video.setSize(mSizeCache.getWidth(video.getId()),
+                mSizeCache.getHeight(video.getId()));
+    }
+
     private @Nullable Uri getThumbnailUri(long id) {
         int thumbKind = MediaStore.Video.Thumbnails.MINI_KIND;
 
@@ -18,12 +18,12 @@ package com.android.pump.fragment;
 
 import android.content.Context;
 import android.graphics.Rect;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -39,7 +39,9 @@ import com.android.pump.activity.AlbumDetailsActivity;
 import com.android.pump.db.Album;
 import com.android.pump.db.Artist;
 import com.android.pump.db.MediaDb;
+import com.android.pump.ui.ImagePrefetcher;
 import com.android.pump.util.Globals;
+import com.android.pump.widget.UriImageView;
 
 import java.util.List;
 
@@ -57,10 +59,20 @@ public class AlbumFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_album, container, false);
         mRecyclerView = view.findViewById(R.id.fragment_album_recycler_view);
         mRecyclerView.setHasFixedSize(true);
-        mRecyclerView.setAdapter(new AlbumAdapter(requireContext()));
+        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
+        // Album art is square and a column wide
+        int artSize = getResources().getDisplayMetrics().widthPixels
+                / gridLayoutManager.getSpanCount();
+
+        AlbumAdapter albumAdapter = new AlbumAdapter(requireContext(), artSize);
+        mRecyclerView.setAdapter(albumAdapter);
+        ImagePrefetcher imagePrefetcher =
+                new ImagePrefetcher(Globals.getImageLoader(requireContext()), albumAdapter);
+        imagePrefetcher.setTargetSize(artSize);
+        imagePrefetcher.setDataLoader(albumAdapter);
+        imagePrefetcher.attachToRecyclerView(mRecyclerView);
         mRecyclerView.addItemDecoration(new SpaceItemDecoration(4, 16));
 
-        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
         gridLayoutManager.setSpanSizeLookup(
                 new HeaderSpanSizeLookup(gridLayoutManager.getSpanCount()));
 
@@ -71,14 +83,18 @@ public class AlbumFragment extends Fragment {
     }
 
     private static class AlbumAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
-            implements MediaDb.UpdateCallback {
+            implements MediaDb.UpdateCallback, ImagePrefetcher.UriProvider,
+            ImagePrefetcher.DataLoader {
         private final MediaDb mMediaDb;
         private final List<Album> mAlbums; // TODO(b/123710968) Use android.support.v7.util.SortedList/android.support.v7.widget.util.SortedListAdapterCallback instead
 
-        private AlbumAdapter(@NonNull Context context) {
+        private final int mArtSize;
+
+        private AlbumAdapter(@NonNull Context context, int artSize) {
             setHasStableIds(true);
             mMediaDb = Globals.getMediaDb(context);
             mAlbums = mMediaDb.getAlbums();
+            mArtSize = artSize;
         }
 
         public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
@@ -97,7 +113,7 @@ public class AlbumFragment extends Fragment {
                         .inflate(viewType, parent, false)) { };
             } else {
                 return new AlbumViewHolder(LayoutInflater.from(parent.getContext())
-                        .inflate(viewType, parent, false));
+                        .inflate(viewType, parent, false), mArtSize);
             }
         }
 
@@ -141,15 +157,35 @@ public class AlbumFragment extends Fragment {
         public void onItemsRemoved(int index, int count) {
             notifyItemRangeRemoved(index + 1, count);
         }
+
+        @Override
+        public @Nullable Uri getImageUri(int position) {
+            if (position == 0) {
+                return null;
+            }
+            Album album = mAlbums.get(position - 1);
+            return album.getAlbumArtUri();
+        }
+
+        @Override
+        public void loadData(int position) {
+            if (position == 0) {
+                return;
+            }
+            Album album = mAlbums.get(position - 1);
+            mMediaDb.loadData(album); // Loads the album art uri ahead of binding
+        }
     }
 
     private static class AlbumViewHolder extends RecyclerView.ViewHolder {
-        private AlbumViewHolder(@NonNull View itemView) {
+        private AlbumViewHolder(@NonNull View itemView, int artSize) {
             super(itemView);
+            UriImageView imageView = itemView.findViewById(R.id.album_image);
+            imageView.setTargetSize(artSize);
         }
 
         private void bind(@NonNull Album album) {
-            ImageView imageView = itemView.findViewById(R.id.album_image);
+            UriImageView imageView = itemView.findViewById(R.id.album_image);
             TextView titleView = itemView.findViewById(R.id.album_title);
             TextView artistView = itemView.findViewById(R.id.album_artist);
 
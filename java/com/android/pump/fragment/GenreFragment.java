@@ -18,6 +18,7 @@ package com.android.pump.fragment;
 
 import android.content.Context;
 import android.graphics.Rect;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
@@ -36,11 +37,15 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.pump.R;
 import com.android.pump.activity.GenreDetailsActivity;
+import com.android.pump.db.Album;
+import com.android.pump.db.Audio;
 import com.android.pump.db.Genre;
 import com.android.pump.db.MediaDb;
 import com.android.pump.util.Globals;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @UiThread
 public class GenreFragment extends Fragment {
@@ -151,7 +156,15 @@ public class GenreFragment extends Fragment {
             ImageView imageView = itemView.findViewById(R.id.genre_image);
             TextView textView = itemView.findViewById(R.id.genre_text);
 
-            // TODO imageView.setImageURI(xxx);
+            Set<Uri> albumArtUris = new HashSet<>();
+            for (Audio audio : genre.getAudios()) {
+                Album album = audio.getAlbum();
+                if (album != null && album.getAlbumArtUri() != null) {
+                    albumArtUris.add(album.getAlbumArtUri());
+                }
+            }
+            imageView.setImageURI(Globals.getImageLoader(itemView.getContext())
+                    .getMosaicUri(albumArtUris));
             textView.setText(genre.getName());
 
             itemView.setOnClickListener((view) ->
@@ -24,7 +24,6 @@ import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -41,12 +40,19 @@ import com.android.pump.R;
 import com.android.pump.activity.MovieDetailsActivity;
 import com.android.pump.db.MediaDb;
 import com.android.pump.db.Movie;
+import com.android.pump.ui.ImagePrefetcher;
+import com.android.pump.util.CenterCrop;
 import com.android.pump.util.Globals;
+import com.android.pump.util.Transformation;
+import com.android.pump.widget.UriImageView;
 
 import java.util.List;
 
 @UiThread
 public class MovieFragment extends Fragment {
+    // Cropped once by the image loader rather than by the view on every draw
+    private static final Transformation POSTER_CROP = new CenterCrop(2, 3);
+
     private RecyclerView mRecyclerView;
 
     public static @NonNull Fragment newInstance() {
@@ -59,10 +65,21 @@ public class MovieFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_movie, container, false);
         mRecyclerView = view.findViewById(R.id.fragment_movie_recycler_view);
         mRecyclerView.setHasFixedSize(true);
-        mRecyclerView.setAdapter(new MovieAdapter(requireContext()));
+        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
+        // Posters are 2:3 and a column wide, so the height is the longest side
+        int posterSize = getResources().getDisplayMetrics().widthPixels
+                / gridLayoutManager.getSpanCount() * 3 / 2;
+
+        MovieAdapter movieAdapter = new MovieAdapter(requireContext(), posterSize);
+        mRecyclerView.setAdapter(movieAdapter);
+        ImagePrefetcher imagePrefetcher =
+                new ImagePrefetcher(Globals.getImageLoader(requireContext()), movieAdapter);
+        imagePrefetcher.setTargetSize(posterSize);
+        imagePrefetcher.setDataLoader(movieAdapter);
+        imagePrefetcher.setTransformations(POSTER_CROP);
+        imagePrefetcher.attachToRecyclerView(mRecyclerView);
         mRecyclerView.addItemDecoration(new SpaceItemDecoration(4, 16));
 
-        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
         gridLayoutManager.setSpanSizeLookup(
                 new HeaderSpanSizeLookup(gridLayoutManager.getSpanCount()));
 
@@ -75,14 +92,17 @@ public class MovieFragment extends Fragment {
     }
 
     private static class MovieAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
-            implements MediaDb.UpdateCallback {
+            implements MediaDb.UpdateCallback, ImagePrefetcher.UriProvider,
+            ImagePrefetcher.DataLoader {
         private final MediaDb mMediaDb;
         private final List<Movie> mMovies; // TODO(b/123710968) Use android.support.v7.util.SortedList/android.support.v7.widget.util.SortedListAdapterCallback instead
+        private final int mPosterSize;
 
-        private MovieAdapter(@NonNull Context context) {
+        private MovieAdapter(@NonNull Context context, int posterSize) {
             setHasStableIds(true);
             mMediaDb = Globals.getMediaDb(context);
             mMovies = mMediaDb.getMovies();
+            mPosterSize = posterSize;
         }
 
         public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
@@ -101,7 +121,7 @@ public class MovieFragment extends Fragment {
                         .inflate(viewType, parent, false)) { };
             } else {
                 return new MovieViewHolder(LayoutInflater.from(parent.getContext())
-                        .inflate(viewType, parent, false));
+                        .inflate(viewType, parent, false), mPosterSize);
             }
         }
 
@@ -145,15 +165,37 @@ public class MovieFragment extends Fragment {
         public void onItemsRemoved(int index, int count) {
             notifyItemRangeRemoved(index + 1, count);
         }
+
+        @Override
+        public @Nullable Uri getImageUri(int position) {
+            if (position == 0) {
+                return null;
+            }
+            Movie movie = mMovies.get(position - 1);
+            Uri posterUri = movie.getPosterUri();
+            return posterUri != null ? posterUri : movie.getThumbnailUri();
+        }
+
+        @Override
+        public void loadData(int position) {
+            if (position == 0) {
+                return;
+            }
+            Movie movie = mMovies.get(position - 1);
+            mMediaDb.loadData(movie); // Loads the poster uri ahead of binding
+        }
     }
 
     private static class MovieViewHolder extends RecyclerView.ViewHolder {
-        private MovieViewHolder(@NonNull View itemView) {
+        private MovieViewHolder(@NonNull View itemView, int posterSize) {
             super(itemView);
+            UriImageView imageView = itemView.findViewById(R.id.movie_image);
+            imageView.setTargetSize(posterSize);
+            imageView.setTransformations(POSTER_CROP);
         }
 
         private void bind(@NonNull Movie movie) {
-            ImageView imageView = itemView.findViewById(R.id.movie_image);
+            UriImageView imageView = itemView.findViewById(R.id.movie_image);
             TextView textView = itemView.findViewById(R.id.movie_text);
 
             Uri posterUri = movie.getPosterUri();
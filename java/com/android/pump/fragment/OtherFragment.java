@@ -20,7 +20,6 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
-import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,6 +27,7 @@ import android.view.ViewGroup;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
+import androidx.collection.ArrayMap;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.GridLayoutManager.SpanSizeLookup;
@@ -39,12 +39,15 @@ import com.android.pump.R;
 import com.android.pump.activity.OtherDetailsActivity;
 import com.android.pump.db.MediaDb;
 import com.android.pump.db.Other;
+import com.android.pump.ui.ImagePrefetcher;
+import com.android.pump.ui.MosaicLayout;
 import com.android.pump.util.Globals;
 import com.android.pump.util.ImageLoader;
 import com.android.pump.util.Orientation;
 import com.android.pump.widget.UriImageView;
 
 import java.util.List;
+import java.util.Map;
 
 @UiThread
 public class OtherFragment extends Fragment {
@@ -62,9 +65,16 @@ public class OtherFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_other, container, false);
         mRecyclerView = view.findViewById(R.id.fragment_other_recycler_view);
         mRecyclerView.setHasFixedSize(true);
+        // Tiles change span as thumbnails load, so all are sized for the widest, a full row
+        int thumbnailSize = getResources().getDisplayMetrics().widthPixels;
 
-        OtherAdapter otherAdapter = new OtherAdapter(requireContext());
+        OtherAdapter otherAdapter = new OtherAdapter(requireContext(), thumbnailSize);
         mRecyclerView.setAdapter(otherAdapter);
+        ImagePrefetcher imagePrefetcher =
+                new ImagePrefetcher(Globals.getImageLoader(requireContext()), otherAdapter);
+        imagePrefetcher.setTargetSize(thumbnailSize);
+        imagePrefetcher.setDataLoader(otherAdapter);
+        imagePrefetcher.attachToRecyclerView(mRecyclerView);
 
         GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
         gridLayoutManager.setSpanSizeLookup(otherAdapter.getSpanSizeLookup());
@@ -82,19 +92,24 @@ public class OtherFragment extends Fragment {
     }
 
     private static class OtherAdapter extends Adapter<ViewHolder>
-            implements MediaDb.UpdateCallback, ImageLoader.Callback {
+            implements MediaDb.UpdateCallback, ImageLoader.Callback, ImagePrefetcher.UriProvider,
+            ImagePrefetcher.DataLoader, MosaicLayout.OrientationProvider, MosaicLayout.Callback {
         private final ImageLoader mImageLoader;
         private final MediaDb mMediaDb;
         private final List<Other> mOthers; // TODO(b/123710968) Use android.support.v7.util.SortedList/android.support.v7.widget.util.SortedListAdapterCallback instead
-        private final SparseIntArray mSpanSize = new SparseIntArray();
+        private final MosaicLayout mMosaicLayout = new MosaicLayout(SPAN_COUNT, this, this);
+        // Positions of the thumbnails that have been requested, to find the item when one loads
+        private final Map<Uri, Integer> mPositions = new ArrayMap<>();
+        private final int mThumbnailSize;
 
-        private OtherAdapter(@NonNull Context context) {
+        private OtherAdapter(@NonNull Context context, int thumbnailSize) {
             setHasStableIds(true);
+            mThumbnailSize = thumbnailSize;
 
             mImageLoader = Globals.getImageLoader(context);
             mMediaDb = Globals.getMediaDb(context);
             mOthers = mMediaDb.getOthers();
-            recalculateSpans();
+            mMosaicLayout.reset(mOthers.size());
         }
 
         public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
@@ -114,7 +129,7 @@ public class OtherFragment extends Fragment {
                         .inflate(viewType, parent, false)) { };
             } else {
                 return new OtherViewHolder(LayoutInflater.from(parent.getContext())
-                        .inflate(viewType, parent, false));
+                        .inflate(viewType, parent, false), mThumbnailSize);
             }
         }
 
@@ -125,6 +140,7 @@ public class OtherFragment extends Fragment {
             } else {
                 Other other = mOthers.get(position - 1);
                 mMediaDb.loadData(other); // TODO Where should we call this? In bind()?
+                rememberPosition(other, position - 1);
                 ((OtherViewHolder) holder).bind(other);
             }
         }
@@ -146,73 +162,73 @@ public class OtherFragment extends Fragment {
 
         @Override
         public void onImageLoaded(@NonNull Uri uri, @Nullable Bitmap bitmap) {
-            // TODO Optimize this (only update necessary parts -- not the whole world)
-            recalculateSpans();
-            notifyItemRangeChanged(1, mOthers.size());
+            Integer index = mPositions.get(uri);
+            if (index != null && index < mOthers.size()
+                    && uri.equals(mOthers.get(index).getThumbnailUri())) {
+                mMosaicLayout.invalidate(index);
+            }
         }
 
         @Override
         public void onItemsInserted(int index, int count) {
+            mPositions.clear();
+            mMosaicLayout.reset(mOthers.size());
             notifyItemRangeInserted(index + 1, count);
         }
 
         @Override
         public void onItemsUpdated(int index, int count) {
+            for (int i = index; i < index + count; ++i) {
+                mMosaicLayout.invalidate(i);
+            }
             notifyItemRangeChanged(index + 1, count);
         }
 
         @Override
         public void onItemsRemoved(int index, int count) {
+            mPositions.clear();
+            mMosaicLayout.reset(mOthers.size());
             notifyItemRangeRemoved(index + 1, count);
         }
 
-        private void recalculateSpans() {
-            // TODO Recalculate when an image is loaded
-            // TODO Recalculate when notifyXxx is called
-            // TODO Optimize
-            mSpanSize.clear();
-            int current = 0;
-            while (current < mOthers.size()) {
-                int orientation = getOrientation(current);
-                if (orientation == Orientation.LANDSCAPE) {
-                    orientation = getOrientation(current + 1);
-                    if (orientation == Orientation.LANDSCAPE) {
-                        // L L
-                        mSpanSize.append(current++, SPAN_COUNT / 2);
-                        mSpanSize.append(current++, SPAN_COUNT / 2);
-                    } else if (orientation == Orientation.PORTRAIT) {
-                        // L P
-                        mSpanSize.append(current++, SPAN_COUNT * 2 / 3);
-                        mSpanSize.append(current++, SPAN_COUNT * 1 / 3);
-                    } else {
-                        // L
-                        mSpanSize.append(current++, SPAN_COUNT);
-                    }
-                } else if (orientation == Orientation.PORTRAIT) {
-                    orientation = getOrientation(current + 1);
-                    if (orientation == Orientation.LANDSCAPE) {
-                        // P L
-                        mSpanSize.append(current++, SPAN_COUNT * 1 / 3);
-                        mSpanSize.append(current++, SPAN_COUNT * 2 / 3);
-                    } else if (orientation == Orientation.PORTRAIT &&
-                            getOrientation(current + 2) == Orientation.PORTRAIT) {
-                        // P P P
-                        mSpanSize.append(current++, SPAN_COUNT / 3);
-                        mSpanSize.append(current++, SPAN_COUNT / 3);
-                        mSpanSize.append(current++, SPAN_COUNT / 3);
-                    } else {
-                        // P
-                        mSpanSize.append(current++, SPAN_COUNT);
-                    }
-                } else {
-                    // unknown
-                    mSpanSize.append(current++, SPAN_COUNT);
-                }
+        @Override
+        public void onSpansChanged(int index, int count) {
+            notifyItemRangeChanged(index + 1, count);
+        }
+
+        @Override
+        public @Nullable Uri getImageUri(int position) {
+            if (position == 0) {
+                return null;
+            }
+            return mOthers.get(position - 1).getThumbnailUri();
+        }
+
+        @Override
+        public void loadData(int position) {
+            if (position == 0) {
+                return;
+            }
+            Other other = mOthers.get(position - 1);
+            mMediaDb.loadData(other); // Loads the thumbnail uri ahead of binding
+            rememberPosition(other, position - 1);
+        }
+
+        private void rememberPosition(@NonNull Other other, int index) {
+            Uri thumbUri = other.getThumbnailUri();
+            if (thumbUri != null) {
+                mPositions.put(thumbUri, index);
             }
         }
 
-        private @Orientation int getOrientation(int index) {
-            Uri thumbUri = index >= mOthers.size() ? null : mOthers.get(index).getThumbnailUri();
+        @Override
+        public @Orientation int getOrientation(int index) {
+            Other other = mOthers.get(index);
+            if (other.hasSize()) {
+                return other.getWidth() < other.getHeight() ?
+                        Orientation.PORTRAIT : Orientation.LANDSCAPE;
+            }
+            Uri thumbUri = other.getThumbnailUri();
             if (thumbUri == null) {
                 return Orientation.UNKNOWN;
             }
@@ -223,33 +239,35 @@ public class OtherFragment extends Fragment {
             return new SpanSizeLookup() {
                 @Override
                 public int getSpanSize(int position) {
-                    return position == 0 ? SPAN_COUNT : mSpanSize.get(position - 1);
+                    return position == 0 ? SPAN_COUNT : mMosaicLayout.getSpanSize(position - 1);
                 }
 
                 @Override
                 public int getSpanIndex(int position, int spanCount) {
-                    // TODO Optimize
-                    return super.getSpanIndex(position, spanCount);
+                    return position == 0 ? 0 : mMosaicLayout.getSpanIndex(position - 1);
                 }
 
                 @Override
                 public int getSpanGroupIndex(int adapterPosition, int spanCount) {
-                    // TODO Optimize
-                    return super.getSpanGroupIndex(adapterPosition, spanCount);
+                    // The header takes up the first group
+                    return adapterPosition == 0 ? 0
+                            : mMosaicLayout.getSpanGroupIndex(adapterPosition - 1) + 1;
                 }
             };
         }
     }
 
     private static class OtherViewHolder extends ViewHolder {
-        private OtherViewHolder(@NonNull View itemView) {
+        private OtherViewHolder(@NonNull View itemView, int thumbnailSize) {
             super(itemView);
+            UriImageView imageView = itemView.findViewById(R.id.other_image);
+            imageView.setTargetSize(thumbnailSize);
         }
 
         private void bind(@NonNull Other other) {
             UriImageView imageView = itemView.findViewById(R.id.other_image);
 
-            imageView.setImageURI(other.getThumbnailUri());
+            imageView.setThumbnailURI(other.getThumbnailUri(), other.getId());
 
             itemView.setOnClickListener((view) ->
                     OtherDetailsActivity.start(view.getContext(), other));
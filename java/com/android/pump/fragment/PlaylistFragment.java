@@ -46,7 +46,6 @@ import com.android.pump.db.Playlist;
 import com.android.pump.util.Globals;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -163,7 +162,6 @@ public class PlaylistFragment extends Fragment {
             TextView titleView = itemView.findViewById(R.id.playlist_title);
             TextView artistsView = itemView.findViewById(R.id.playlist_artists);
 
-            // TODO Find a better way to handle 2x2 art
             Set<Uri> albumArtUris = new HashSet<>();
             Set<String> artistNames = new HashSet<>();
             List<Audio> audios = playlist.getAudios();
@@ -179,37 +177,16 @@ public class PlaylistFragment extends Fragment {
                 }
             }
 
-            int numAlbumArt = albumArtUris.size();
-            if (numAlbumArt == 0) {
-                image0View.setImageURI(null);
-                image1View.setImageURI(null);
-                image2View.setImageURI(null);
-                image3View.setImageURI(null);
-                image0View.setVisibility(View.VISIBLE);
-                image1View.setVisibility(View.GONE);
-                image2View.setVisibility(View.GONE);
-                image3View.setVisibility(View.GONE);
-            } else if (numAlbumArt < 4) {
-                Iterator<Uri> iterator = albumArtUris.iterator();
-                image0View.setImageURI(iterator.next());
-                image1View.setImageURI(null);
-                image2View.setImageURI(null);
-                image3View.setImageURI(null);
-                image0View.setVisibility(View.VISIBLE);
-                image1View.setVisibility(View.GONE);
-                image2View.setVisibility(View.GONE);
-                image3View.setVisibility(View.GONE);
-            } else {
-                Iterator<Uri> iterator = albumArtUris.iterator();
-                image0View.setImageURI(iterator.next());
-                image1View.setImageURI(iterator.next());
-                image2View.setImageURI(iterator.next());
-                image3View.setImageURI(iterator.next());
-                image0View.setVisibility(View.VISIBLE);
-                image1View.setVisibility(View.VISIBLE);
-                image2View.setVisibility(View.VISIBLE);
-                image3View.setVisibility(View.VISIBLE);
-            }
+            // A single collage instead of four images to decode and draw
+            image0View.setImageURI(Globals.getImageLoader(itemView.getContext())
+                    .getMosaicUri(albumArtUris));
+            image1View.setImageURI(null);
+            image2View.setImageURI(null);
+            image3View.setImageURI(null);
+            image0View.setVisibility(View.VISIBLE);
+            image1View.setVisibility(View.GONE);
+            image2View.setVisibility(View.GONE);
+            image3View.setVisibility(View.GONE);
             titleView.setText(playlist.getName());
             // TODO Fix comma separation for i18n/l11n
             artistsView.setText(artistNames.isEmpty() ? null : TextUtils.join(", ", artistNames));
@@ -18,12 +18,12 @@ package com.android.pump.fragment;
 
 import android.content.Context;
 import android.graphics.Rect;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -40,7 +40,9 @@ import com.android.pump.R;
 import com.android.pump.activity.SeriesDetailsActivity;
 import com.android.pump.db.MediaDb;
 import com.android.pump.db.Series;
+import com.android.pump.ui.ImagePrefetcher;
 import com.android.pump.util.Globals;
+import com.android.pump.widget.UriImageView;
 
 import java.util.List;
 
@@ -58,10 +60,20 @@ public class SeriesFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_series, container, false);
         mRecyclerView = view.findViewById(R.id.fragment_series_recycler_view);
         mRecyclerView.setHasFixedSize(true);
-        mRecyclerView.setAdapter(new SeriesAdapter(requireContext()));
+        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
+        // Posters are 2:3 and a column wide, so the height is the longest side
+        int posterSize = getResources().getDisplayMetrics().widthPixels
+                / gridLayoutManager.getSpanCount() * 3 / 2;
+
+        SeriesAdapter seriesAdapter = new SeriesAdapter(requireContext(), posterSize);
+        mRecyclerView.setAdapter(seriesAdapter);
+        ImagePrefetcher imagePrefetcher =
+                new ImagePrefetcher(Globals.getImageLoader(requireContext()), seriesAdapter);
+        imagePrefetcher.setTargetSize(posterSize);
+        imagePrefetcher.setDataLoader(seriesAdapter);
+        imagePrefetcher.attachToRecyclerView(mRecyclerView);
         mRecyclerView.addItemDecoration(new SpaceItemDecoration(4, 16));
 
-        GridLayoutManager gridLayoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
         gridLayoutManager.setSpanSizeLookup(
                 new HeaderSpanSizeLookup(gridLayoutManager.getSpanCount()));
 
@@ -74,14 +86,18 @@ public class SeriesFragment extends Fragment {
     }
 
     private static class SeriesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
-            implements MediaDb.UpdateCallback {
+            implements MediaDb.UpdateCallback, ImagePrefetcher.UriProvider,
+            ImagePrefetcher.DataLoader {
         private final MediaDb mMediaDb;
         private final List<Series> mSeries; // TODO(b/123710968) Use android.support.v7.util.SortedList/android.support.v7.widget.util.SortedListAdapterCallback instead
 
-        private SeriesAdapter(@NonNull Context context) {
+        private final int mPosterSize;
+
+        private SeriesAdapter(@NonNull Context context, int posterSize) {
             // TODO setHasStableIds(true);
             mMediaDb = Globals.getMediaDb(context);
             mSeries = mMediaDb.getSeries();
+            mPosterSize = posterSize;
         }
 
         public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
@@ -100,7 +116,7 @@ public class SeriesFragment extends Fragment {
                         .inflate(viewType, parent, false)) { };
             } else {
                 return new SeriesViewHolder(LayoutInflater.from(parent.getContext())
-                        .inflate(viewType, parent, false));
+                        .inflate(viewType, parent, false), mPosterSize);
             }
         }
 
@@ -144,15 +160,35 @@ public class SeriesFragment extends Fragment {
         public void onItemsRemoved(int index, int count) {
             notifyItemRangeRemoved(index + 1, count);
         }
+
+        @Override
+        public @Nullable Uri getImageUri(int position) {
+            if (position == 0) {
+                return null;
+            }
+            Series series = mSeries.get(position - 1);
+            return series.getPosterUri();
+        }
+
+        @Override
+        public void loadData(int position) {
+            if (position == 0) {
+                return;
+            }
+            Series series = mSeries.get(position - 1);
+            mMediaDb.loadData(series); // Loads the poster uri ahead of binding
+        }
     }
 
     private static class SeriesViewHolder extends RecyclerView.ViewHolder {
-        private SeriesViewHolder(@NonNull View itemView) {
+        private SeriesViewHolder(@NonNull View itemView, int posterSize) {
             super(itemView);
+            UriImageView imageView = itemView.findViewById(R.id.series_image);
+            imageView.setTargetSize(posterSize);
         }
 
         private void bind(@NonNull Series series) {
-            ImageView imageView = itemView.findViewById(R.id.series_image);
+            UriImageView imageView = itemView.findViewById(R.id.series_image);
             TextView textView = itemView.findViewById(R.id.series_text);
 
             imageView.setImageURI(series.getPosterUri());
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.provider;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Pulls the values at a few paths out of a JSON document while it is read, skipping everything
+// else without building it. Paths are object keys joined by '.'; arrays are looked through, so
+// "itemListElement.result.name" matches the name of every result.
+@WorkerThread
+final class JsonExtractor {
+    private final Set<String> mPaths = new HashSet<>();
+    // Every path above a wanted value, which are the only ones worth descending into
+    private final Set<String> mParents = new HashSet<>();
+
+    private JsonExtractor(@NonNull String... paths) {
+        for (String path : paths) {
+            mPaths.add(path);
+            for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1)) {
+                mParents.add(path.substring(0, i));
+            }
+        }
+    }
+
+    // Returns the first value found for each path. Stops reading once all of them are found.
+    static @NonNull Map<String, String> readFirst(@NonNull InputStream in,
+            @NonNull String... paths) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        new JsonExtractor(paths).read(in, new Visitor() {
+            @Override
+            boolean onValue(@NonNull String path, @NonNull String value) {
+                if (!values.containsKey(path)) {
+                    values.put(path, value);
+                }
+                return values.size() == paths.length;
+            }
+        });
+        return values;
+    }
+
+    // Returns every value found for the path, in document order.
+    static @NonNull List<String> readAll(@NonNull InputStream in, @NonNull String path)
+            throws IOException {
+        List<String> values = new ArrayList<>();
+        new JsonExtractor(path).read(in, new Visitor() {
+            @Override
+            boolean onValue(@NonNull String p, @NonNull String value) {
+                values.add(value);
+                return false;
+            }
+        });
+        return values;
+    }
+
+    // Returns the fields of each element of the array at the path, in document order. Fields are
+    // paths relative to the elements, and missing ones are left out of the maps.
+    static @NonNull List<Map<String, String>> readEach(@NonNull InputStream in,
+            @NonNull String path, @NonNull String... fields) throws IOException {
+        String[] paths = new String[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            paths[i] = path + '.' + fields[i];
+        }
+        int prefixLength = path.length() + 1;
+        List<Map<String, String>> elements = new ArrayList<>();
+        new JsonExtractor(paths).read(in, new Visitor() {
+            @Override
+            void onElement(@NonNull String p) {
+                if (p.equals(path)) {
+                    elements.add(new HashMap<>());
+                }
+            }
+
+            @Override
+            boolean onValue(@NonNull String p, @NonNull String value) {
+                elements.get(elements.size() - 1).put(p.substring(prefixLength), value);
+                return false;
+            }
+        });
+        return elements;
+    }
+
+    private void read(@NonNull InputStream in, @NonNull Visitor visitor) throws IOException {
+        // Not closed, the stream belongs to the caller
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            readValue(reader, null, visitor);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed JSON", e);
+        }
+    }
+
+    // Returns true once the visitor is done.
+    private boolean readValue(@NonNull JsonReader reader, @Nullable String path,
+            @NonNull Visitor visitor) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_ARRAY) {
+            if (path != null && !mParents.contains(path)) {
+                reader.skipValue();
+                return false;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (path != null) {
+                    visitor.onElement(path);
+                }
+                if (readValue(reader, path, visitor)) {
+                    return true;
+                }
+            }
+            reader.endArray();
+        } else if (token == JsonToken.BEGIN_OBJECT) {
+            if (path != null && !mParents.contains(path)) {
+                reader.skipValue();
+                return false;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (readValue(reader, path == null ? name : path + '.' + name, visitor)) {
+                    return true;
+                }
+            }
+            reader.endObject();
+        } else if (path != null && mPaths.contains(path) && token != JsonToken.NULL) {
+            String value = token == JsonToken.BOOLEAN
+                    ? Boolean.toString(reader.nextBoolean()) : reader.nextString();
+            return visitor.onValue(path, value);
+        } else {
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    private abstract static class Visitor {
+        // Called before each element of the array at the path.
+        void onElement(@NonNull String path) { }
+
+        // Returns true to stop reading.
+        abstract boolean onValue(@NonNull String path, @NonNull String value);
+    }
+}
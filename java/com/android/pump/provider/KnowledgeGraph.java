@@ -23,176 +23,183 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.android.pump.concurrent.SettableFuture;
+import com.android.pump.concurrent.SingleFlight;
 import com.android.pump.db.Album;
 import com.android.pump.db.Artist;
-import com.android.pump.db.DataProvider;
+import com.android.pump.db.AsyncDataProvider;
 import com.android.pump.db.Episode;
 import com.android.pump.db.Movie;
+import com.android.pump.db.NotFoundException;
 import com.android.pump.db.Series;
 import com.android.pump.util.Clog;
 import com.android.pump.util.Http;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @WorkerThread
-public final class KnowledgeGraph implements DataProvider {
+public final class KnowledgeGraph implements AsyncDataProvider {
     private static final String TAG = Clog.tag(KnowledgeGraph.class);
 
-    private static final DataProvider INSTANCE = new KnowledgeGraph();
+    private static final AsyncDataProvider INSTANCE = new KnowledgeGraph();
+    // The episodes of a series all ask for the same thing
+    private static final SingleFlight<String, Map<String, String>> FLIGHTS =
+            new SingleFlight<>("knowledge_graph", TimeUnit.SECONDS.toMillis(10));
+
+    // Only the first result is requested, and only these fields of it are read
+    private static final String NAME = "itemListElement.result.name";
+    private static final String IMAGE_URL = "itemListElement.result.image.contentUrl";
+    private static final String DETAILED_DESCRIPTION =
+            "itemListElement.result.detailedDescription.articleBody";
 
     private KnowledgeGraph() { }
 
     @AnyThread
-    public static @NonNull DataProvider getInstance() {
+    public static @NonNull AsyncDataProvider getInstance() {
         return INSTANCE;
     }
 
     @Override
     public boolean populateArtist(@NonNull Artist artist) throws IOException {
-        boolean updated = false;
-        // Artist may be of type "Person" or "MusicGroup"
-        JSONObject result = getResultFromKG(artist.getName(), "Person", "MusicGroup");
-
-        String imageUrl = getImageUrl(result);
-        if (imageUrl != null) {
-            updated |= artist.setHeadshotUri(Uri.parse(imageUrl));
-        }
-        String detailedDescription = getDetailedDescription(result);
-        if (detailedDescription != null) {
-            updated |= artist.setDescription(detailedDescription);
-        }
-        return updated;
+        return populateArtistAsync(artist).await();
     }
 
     @Override
     public boolean populateAlbum(@NonNull Album album) throws IOException {
-        // Return if album art is already retrieved from the media file
-        if (album.getAlbumArtUri() != null) {
-            return false;
-        }
-
-        boolean updated = false;
-        JSONObject result = getResultFromKG(album.getTitle(), "MusicAlbum");
-
-        // TODO: (b/128383917) Investigate how to filter search results
-        String imageUrl = getImageUrl(result);
-        if (imageUrl != null) {
-            updated |= album.setAlbumArtUri(Uri.parse(imageUrl));
-        }
-        String detailedDescription = getDetailedDescription(result);
-        if (detailedDescription != null) {
-            updated |= album.setDescription(detailedDescription);
-        }
-        return updated;
+        return populateAlbumAsync(album).await();
     }
 
     @Override
     public boolean populateMovie(@NonNull Movie movie) throws IOException {
-        boolean updated = false;
-        JSONObject result = getResultFromKG(movie.getTitle(), "Movie");
-
-        String imageUrl = getImageUrl(result);
-        if (imageUrl != null) {
-            updated |= movie.setPosterUri(Uri.parse(imageUrl));
-        }
-        String detailedDescription = getDetailedDescription(result);
-        if (detailedDescription != null) {
-            updated |= movie.setDescription(detailedDescription);
-        }
-        return updated;
+        return populateMovieAsync(movie).await();
     }
 
     @Override
     public boolean populateSeries(@NonNull Series series) throws IOException {
-        boolean updated = false;
-        JSONObject result = getResultFromKG(series.getTitle(), "TVSeries");
-
-        String imageUrl = getImageUrl(result);
-        if (imageUrl != null) {
-            updated |= series.setPosterUri(Uri.parse(imageUrl));
-        }
-        String detailedDescription = getDetailedDescription(result);
-        if (detailedDescription != null) {
-            updated |= series.setDescription(detailedDescription);
-        }
-        return updated;
+        return populateSeriesAsync(series).await();
     }
 
     @Override
     public boolean populateEpisode(@NonNull Episode episode) throws IOException {
-        boolean updated = false;
-        JSONObject result = getResultFromKG(episode.getSeries().getTitle(), "TVEpisode");
+        return populateEpisodeAsync(episode).await();
+    }
 
-        String imageUrl = getImageUrl(result);
-        if (imageUrl != null) {
-            updated |= episode.setPosterUri(Uri.parse(imageUrl));
-        }
-        String detailedDescription = getDetailedDescription(result);
-        if (detailedDescription != null) {
-            updated |= episode.setDescription(detailedDescription);
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        // Artist may be of type "Person" or "MusicGroup"
+        return getResultFromKG(artist.getName(), "Person", "MusicGroup").then(result -> {
+            boolean updated = false;
+            String imageUrl = getImageUrl(result);
+            if (imageUrl != null) {
+                updated |= artist.setHeadshotUri(Uri.parse(imageUrl));
+            }
+            String detailedDescription = getDetailedDescription(result);
+            if (detailedDescription != null) {
+                updated |= artist.setDescription(detailedDescription);
+            }
+            return updated;
+        });
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        // Return if album art is already retrieved from the media file
+        if (album.getAlbumArtUri() != null) {
+            return SettableFuture.immediate(false);
         }
-        return updated;
+
+        return getResultFromKG(album.getTitle(), "MusicAlbum").then(result -> {
+            boolean updated = false;
+            // TODO: (b/128383917) Investigate how to filter search results
+            String imageUrl = getImageUrl(result);
+            if (imageUrl != null) {
+                updated |= album.setAlbumArtUri(Uri.parse(imageUrl));
+            }
+            String detailedDescription = getDetailedDescription(result);
+            if (detailedDescription != null) {
+                updated |= album.setDescription(detailedDescription);
+            }
+            return updated;
+        });
     }
 
-    private @NonNull JSONObject getResultFromKG(String title, String... types) throws IOException {
-        try {
-            JSONObject root = (JSONObject) getContent(getContentUri(title, types));
-            JSONArray items = root.getJSONArray("itemListElement");
-            JSONObject item = (JSONObject) items.get(0);
-            JSONObject result = item.getJSONObject("result");
-            if (!title.equals(result.getString("name"))) {
-                throw new IOException("Failed to find result for " + title);
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return getResultFromKG(movie.getTitle(), "Movie").then(result -> {
+            boolean updated = false;
+            String imageUrl = getImageUrl(result);
+            if (imageUrl != null) {
+                updated |= movie.setPosterUri(Uri.parse(imageUrl));
             }
-            return result;
-        } catch (JSONException e) {
-            throw new IOException("Failed to find result for " + title);
-        }
+            String detailedDescription = getDetailedDescription(result);
+            if (detailedDescription != null) {
+                updated |= movie.setDescription(detailedDescription);
+            }
+            return updated;
+        });
     }
 
-    private @Nullable String getImageUrl(@NonNull JSONObject result) {
-        String imageUrl = null;
-        try {
-            JSONObject imageObj = result.optJSONObject("image");
-            if (imageObj != null) {
-                String url = imageObj.getString("contentUrl");
-                if (url != null) {
-                    // TODO (b/125143807): Remove once HTTPS scheme urls are retrieved.
-                    imageUrl = url.replaceFirst("^http://", "https://");
-                }
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return getResultFromKG(series.getTitle(), "TVSeries").then(result -> {
+            boolean updated = false;
+            String imageUrl = getImageUrl(result);
+            if (imageUrl != null) {
+                updated |= series.setPosterUri(Uri.parse(imageUrl));
             }
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse image url", e);
-        }
-        return imageUrl;
+            String detailedDescription = getDetailedDescription(result);
+            if (detailedDescription != null) {
+                updated |= series.setDescription(detailedDescription);
+            }
+            return updated;
+        });
     }
 
-    private @Nullable String getDescription(@NonNull JSONObject result) {
-        String description = null;
-        try {
-            description = result.getString("description");
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse description", e);
-        }
-        return description;
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return getResultFromKG(episode.getSeries().getTitle(), "TVEpisode").then(result -> {
+            boolean updated = false;
+            String imageUrl = getImageUrl(result);
+            if (imageUrl != null) {
+                updated |= episode.setPosterUri(Uri.parse(imageUrl));
+            }
+            String detailedDescription = getDetailedDescription(result);
+            if (detailedDescription != null) {
+                updated |= episode.setDescription(detailedDescription);
+            }
+            return updated;
+        });
     }
 
-    private @Nullable String getDetailedDescription(@NonNull JSONObject result) {
-        String detailedDescription = null;
-        try {
-            JSONObject descriptionObj = result.optJSONObject("detailedDescription");
-            if (descriptionObj != null) {
-                detailedDescription = descriptionObj.getString("articleBody");
+    private @NonNull SettableFuture<Map<String, String>> getResultFromKG(String title,
+            String... types) {
+        return getContent(getContentUri(title, types)).then(result -> {
+            if (!title.equals(result.get(NAME))) {
+                throw new NotFoundException("Failed to find result for " + title);
             }
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse detailed description", e);
+            return result;
+        });
+    }
+
+    private @Nullable String getImageUrl(@NonNull Map<String, String> result) {
+        String url = result.get(IMAGE_URL);
+        if (url == null) {
+            return null;
         }
-        return detailedDescription;
+        // TODO (b/125143807): Remove once HTTPS scheme urls are retrieved.
+        return url.replaceFirst("^http://", "https://");
+    }
+
+    private @Nullable String getDetailedDescription(@NonNull Map<String, String> result) {
+        return result.get(DETAILED_DESCRIPTION);
     }
 
     private static @NonNull Uri getContentUri(@NonNull String title, @NonNull String... types) {
@@ -210,8 +217,11 @@ public final class KnowledgeGraph implements DataProvider {
         return ub.build();
     }
 
-    private static @NonNull Object getContent(@NonNull Uri uri) throws IOException, JSONException {
-        return new JSONTokener(new String(Http.get(uri.toString()), StandardCharsets.UTF_8))
-                .nextValue();
+    private static @NonNull SettableFuture<Map<String, String>> getContent(@NonNull Uri uri) {
+        String url = uri.toString();
+        return FLIGHTS.load(url, () -> Http.getAsync(url, Http.Headers.NONE,
+                Http.PRIORITY_NORMAL, inputStream -> JsonExtractor.readFirst(inputStream,
+                        NAME, IMAGE_URL, DETAILED_DESCRIPTION))
+                .then(Collections::unmodifiableMap));
     }
 }
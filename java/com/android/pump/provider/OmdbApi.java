@@ -22,32 +22,40 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
+import com.android.pump.concurrent.SettableFuture;
+import com.android.pump.concurrent.SingleFlight;
 import com.android.pump.db.Album;
 import com.android.pump.db.Artist;
-import com.android.pump.db.DataProvider;
+import com.android.pump.db.AsyncDataProvider;
 import com.android.pump.db.Episode;
 import com.android.pump.db.Movie;
+import com.android.pump.db.NotFoundException;
 import com.android.pump.db.Series;
 import com.android.pump.util.Clog;
 import com.android.pump.util.Http;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @WorkerThread
-public final class OmdbApi implements DataProvider {
+public final class OmdbApi implements AsyncDataProvider {
     private static final String TAG = Clog.tag(OmdbApi.class);
 
-    private static final DataProvider INSTANCE = new OmdbApi();
+    private static final AsyncDataProvider INSTANCE = new OmdbApi();
+    // Keyed by url and fields, as the parsed result depends on both
+    private static final SingleFlight<String, Map<String, String>> FLIGHTS =
+            new SingleFlight<>("omdb", TimeUnit.SECONDS.toMillis(10));
+
+    private static final String IMDB_ID = "imdbID";
+    private static final String PLOT = "Plot";
 
     private OmdbApi() { }
 
     @AnyThread
-    public static @NonNull DataProvider getInstance() {
+    public static @NonNull AsyncDataProvider getInstance() {
         return INSTANCE;
     }
 
@@ -65,42 +73,62 @@ public final class OmdbApi implements DataProvider {
 
     @Override
     public boolean populateMovie(@NonNull Movie movie) throws IOException {
-        boolean updated = false;
-        try {
-            JSONObject root = (JSONObject) getContent(getContentUri(movie));
-            updated |= movie.setPosterUri(getPosterUri(root.getString("imdbID")));
-            updated |= movie.setSynopsis(root.getString("Plot"));
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse search result", e);
-            throw new IOException(e);
-        }
-        return updated;
+        return populateMovieAsync(movie).await();
     }
 
     @Override
     public boolean populateSeries(@NonNull Series series) throws IOException {
-        boolean updated = false;
-        try {
-            JSONObject root = (JSONObject) getContent(getContentUri(series));
-            updated |= series.setPosterUri(getPosterUri(root.getString("imdbID")));
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse search result", e);
-            throw new IOException(e);
-        }
-        return updated;
+        return populateSeriesAsync(series).await();
     }
 
     @Override
     public boolean populateEpisode(@NonNull Episode episode) throws IOException {
-        boolean updated = false;
-        try {
-            JSONObject root = (JSONObject) getContent(getContentUri(episode));
-            updated |= episode.setPosterUri(getPosterUri(root.getString("imdbID")));
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse search result", e);
-            throw new IOException(e);
-        }
-        return updated;
+        return populateEpisodeAsync(episode).await();
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return getContent(getContentUri(movie), IMDB_ID, PLOT).then(root -> {
+            boolean updated = false;
+            updated |= movie.setPosterUri(getPosterUri(getField(root, IMDB_ID)));
+            updated |= movie.setSynopsis(getField(root, PLOT));
+            return updated;
+        });
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        return getContent(getContentUri(series), IMDB_ID).then(root -> {
+            boolean updated = false;
+            updated |= series.setPosterUri(getPosterUri(getField(root, IMDB_ID)));
+            return updated;
+        });
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        return getContent(getContentUri(episode), IMDB_ID).then(root -> {
+            boolean updated = false;
+            updated |= episode.setPosterUri(getPosterUri(getField(root, IMDB_ID)));
+            return updated;
+        });
     }
 
     private static @NonNull Uri getContentUri(@NonNull Movie movie) {
@@ -142,9 +170,23 @@ public final class OmdbApi implements DataProvider {
         return ub;
     }
 
-    private static @NonNull Object getContent(@NonNull Uri uri) throws IOException, JSONException {
-        return new JSONTokener(new String(Http.get(uri.toString()), StandardCharsets.UTF_8))
-                .nextValue();
+    private static @NonNull SettableFuture<Map<String, String>> getContent(@NonNull Uri uri,
+            @NonNull String... fields) {
+        String url = uri.toString();
+        return FLIGHTS.load(url + " " + Arrays.toString(fields),
+                () -> Http.getAsync(url, Http.Headers.NONE, Http.PRIORITY_NORMAL,
+                        inputStream -> JsonExtractor.readFirst(inputStream, fields))
+                        .then(Collections::unmodifiableMap));
+    }
+
+    private static @NonNull String getField(@NonNull Map<String, String> root,
+            @NonNull String field) throws IOException {
+        String value = root.get(field);
+        if (value == null) {
+            Clog.w(TAG, "Failed to parse search result, no " + field);
+            throw new NotFoundException("Missing " + field);
+        }
+        return value;
     }
 
     private static @NonNull Uri getPosterUri(@NonNull String imdbId) {
@@ -19,9 +19,20 @@ package com.android.pump.provider;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
+import androidx.collection.ArrayMap;
+import androidx.collection.ArraySet;
 
+import com.android.pump.concurrent.SettableFuture;
+import com.android.pump.db.Album;
+import com.android.pump.db.Artist;
+import com.android.pump.db.AsyncDataProvider;
+import com.android.pump.db.BatchDataProvider;
+import com.android.pump.db.Episode;
+import com.android.pump.db.Movie;
+import com.android.pump.db.Series;
 import com.android.pump.util.Clog;
 import com.android.pump.util.Http;
 
@@ -33,15 +44,161 @@ import org.json.JSONTokener;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @WorkerThread
-public final class Wikidata {
+public final class Wikidata implements BatchDataProvider, AsyncDataProvider {
     private static final String TAG = Clog.tag(Wikidata.class);
 
+    private static final Wikidata INSTANCE = new Wikidata();
+
     private Wikidata() { }
 
+    // Both a BatchDataProvider and an AsyncDataProvider
+    @AnyThread
+    public static @NonNull Wikidata getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean populateArtist(@NonNull Artist artist) throws IOException {
+        // NO-OP
+        return false;
+    }
+
+    @Override
+    public boolean populateAlbum(@NonNull Album album) throws IOException {
+        // NO-OP
+        return false;
+    }
+
+    @Override
+    public boolean populateMovie(@NonNull Movie movie) throws IOException {
+        return populateMovieAsync(movie).await();
+    }
+
+    @Override
+    public boolean populateSeries(@NonNull Series series) throws IOException {
+        // NO-OP
+        return false;
+    }
+
+    @Override
+    public boolean populateEpisode(@NonNull Episode episode) throws IOException {
+        // NO-OP
+        return false;
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateArtistAsync(@NonNull Artist artist) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateAlbumAsync(@NonNull Album album) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateMovieAsync(@NonNull Movie movie) {
+        return getMovies(Collections.singletonList(movie))
+                .then(updated -> !updated.isEmpty());
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateSeriesAsync(@NonNull Series series) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Boolean> populateEpisodeAsync(@NonNull Episode episode) {
+        // NO-OP
+        return SettableFuture.immediate(false);
+    }
+
+    @AnyThread
+    @Override
+    public @NonNull SettableFuture<Set<Movie>> populateMoviesAsync(
+            @NonNull Collection<Movie> movies) {
+        return getMovies(movies);
+    }
+
+    // Looks up all the movies with a single query, matching results by title and, if known, year.
+    private static @NonNull SettableFuture<Set<Movie>> getMovies(
+            @NonNull Collection<Movie> movies) {
+        Set<String> titles = new ArraySet<>();
+        for (Movie movie : movies) {
+            titles.add(movie.getTitle());
+        }
+        return Http.getAsync(getMoviesSparqlUri(titles), Http.Headers.NONE, Http.PRIORITY_NORMAL,
+                inputStream -> JsonExtractor.readEach(inputStream, "results.bindings",
+                        "title.value", "year.value", "poster.value", "description.value"))
+                .then(results -> applyResults(movies, results));
+    }
+
+    private static @NonNull Set<Movie> applyResults(@NonNull Collection<Movie> movies,
+            @NonNull List<Map<String, String>> results) {
+        Map<String, List<Map<String, String>>> resultsByTitle = new ArrayMap<>();
+        for (Map<String, String> result : results) {
+            String title = result.get("title.value");
+            List<Map<String, String>> titleResults = resultsByTitle.get(title);
+            if (titleResults == null) {
+                titleResults = new ArrayList<>();
+                resultsByTitle.put(title, titleResults);
+            }
+            titleResults.add(result);
+        }
+
+        Set<Movie> updated = new ArraySet<>();
+        for (Movie movie : movies) {
+            List<Map<String, String>> titleResults = resultsByTitle.get(movie.getTitle());
+            if (titleResults != null && applyResults(movie, titleResults)) {
+                updated.add(movie);
+            }
+        }
+        return updated;
+    }
+
+    private static boolean applyResults(@NonNull Movie movie,
+            @NonNull List<Map<String, String>> results) {
+        String year = movie.hasYear() ? Integer.toString(movie.getYear()) : null;
+        String poster = null;
+        String description = null;
+        // One row per combination of poster, description and release date
+        for (Map<String, String> result : results) {
+            if (year != null && !year.equals(result.get("year.value"))) {
+                continue;
+            }
+            if (poster == null) {
+                poster = result.get("poster.value");
+            }
+            if (description == null) {
+                description = result.get("description.value");
+            }
+        }
+        boolean updated = false;
+        if (poster != null) {
+            updated |= movie.setPosterUri(Uri.parse(poster.replaceFirst("^http://", "https://")));
+        }
+        if (description != null) {
+            updated |= movie.setDescription(description);
+        }
+        return updated;
+    }
+
     public static void search(@NonNull Query query) throws IOException {
         search(query, 1);
     }
@@ -73,22 +230,10 @@ public final class Wikidata {
     private static List<String> getSearchResults(String search, int maxResults) throws IOException {
         String uri = getSearchUri(search, maxResults);
         Clog.i(TAG, uri);
-        String result = new String(Http.get(uri), StandardCharsets.UTF_8);
-        Clog.i(TAG, result);
-        try {
-            Object root = new JSONTokener(result).nextValue();
-            dumpJson(root);
-            JSONObject resultRoot = (JSONObject) root;
-            JSONArray resultArray = resultRoot.getJSONObject("query").getJSONArray("search");
-            List<String> ids = new ArrayList<>(resultArray.length());
-            for (int i = 0; i < resultArray.length(); ++i) {
-                ids.add(resultArray.getJSONObject(i).getString("title"));
-            }
-            return ids;
-        } catch (JSONException e) {
-            Clog.w(TAG, "Failed to parse search result", e);
-            throw new IOException(e);
-        }
+        List<String> ids = Http.get(uri,
+                inputStream -> JsonExtractor.readAll(inputStream, "query.search.title"));
+        Clog.i(TAG, ids.toString());
+        return ids;
     }
 
     private static void getContentForResults(List<String> ids) throws IOException {
@@ -209,6 +354,32 @@ fetch( fullUrl, { headers } ).then( body => body.json() ).then( json => {
         return ub.build().toString();
     }
 
+    private static String getMoviesSparqlUri(Collection<String> titles) {
+        List<String> literals = new ArrayList<>(titles.size());
+        for (String title : titles) {
+            literals.add('"' + title.replace("\\", "\\\\").replace("\"", "\\\"") + "\"@en");
+        }
+        String sparqlQuery = ""
+                + "SELECT ?title ?poster ?description (YEAR(?date) AS ?year) WHERE {"
+                +   "VALUES ?title {"
+                +     TextUtils.join(" ", literals)
+                +   "}"
+                +   "?item rdfs:label ?title."
+                +   "FILTER EXISTS {?item wdt:P31/wdt:P279* wd:Q11424.}"
+                +   "OPTIONAL {?item wdt:P3383 ?poster.}"
+                +   "OPTIONAL {?item schema:description ?description "
+                +     "FILTER (lang(?description) = 'en').}"
+                +   "OPTIONAL {?item wdt:P577 ?date.}"
+                + "}";
+        Uri.Builder ub = new Uri.Builder();
+        ub.scheme("https");
+        ub.authority("query.wikidata.org");
+        ub.appendPath("sparql");
+        ub.appendQueryParameter("format", "json");
+        ub.appendQueryParameter("query", sparqlQuery);
+        return ub.build().toString();
+    }
+
     private static void dumpJson(Object root) throws JSONException {
         dumpJson(null, "", root);
     }
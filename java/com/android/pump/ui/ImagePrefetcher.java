@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.ui;
+
+import android.net.Uri;
+import android.util.SparseBooleanArray;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.collection.ArraySet;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.pump.util.Clog;
+import com.android.pump.util.ImageLoader;
+import com.android.pump.util.ImageRequest;
+import com.android.pump.util.Metrics;
+import com.android.pump.util.Transformation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+@UiThread
+public class ImagePrefetcher extends RecyclerView.OnScrollListener
+        implements RecyclerView.OnChildAttachStateChangeListener {
+    private static final String TAG = Clog.tag(ImagePrefetcher.class);
+
+    // Bounds of the rows of look ahead, which follow the first bind hit ratio of each scroll.
+    private static final int MIN_ROWS = 1;
+    private static final int INITIAL_ROWS = 4;
+    private static final int MAX_ROWS = 8;
+    // Scroll-driven first binds needed before a scroll moves the look ahead.
+    private static final int MIN_FIRST_BINDS = 8;
+    // Below this hit ratio the look ahead grows; at a perfect ratio it shrinks.
+    private static final float TARGET_HIT_RATIO = 0.9f;
+    // Number of scroll events of look ahead at the current velocity.
+    private static final int LOOK_AHEAD_EVENTS = 8;
+
+    private final ImageLoader mImageLoader;
+    private final UriProvider mUriProvider;
+    private DataLoader mDataLoader;
+    private final Set<ImageRequest> mPrefetched = new ArraySet<>();
+    // Positions bound since the last change to the adapter's structure.
+    private final SparseBooleanArray mBound = new SparseBooleanArray();
+    private final RecyclerView.AdapterDataObserver mDataObserver =
+            new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onDataChanged();
+        }
+    };
+    private RecyclerView mRecyclerView;
+    private int mDirection;
+    private int mMaxRows = INITIAL_ROWS;
+    private int mFirstBindHits;
+    private int mFirstBindMisses;
+    private int mScrollHits;
+    private int mScrollMisses;
+    private int mTargetSize;
+    private List<Transformation> mTransformations = Collections.emptyList();
+
+    // Returns the uri of the image at the position, or null if it is not known yet. It is asked
+    // for often, so it must not start any work, see DataLoader.
+    @FunctionalInterface
+    public interface UriProvider {
+        @Nullable Uri getImageUri(int position);
+    }
+
+    // Starts loading what it takes to know the uri of the image at the position, such as the
+    // metadata of the item, for positions about to be shown.
+    @FunctionalInterface
+    public interface DataLoader {
+        void loadData(int position);
+    }
+
+    public ImagePrefetcher(@NonNull ImageLoader imageLoader, @NonNull UriProvider uriProvider) {
+        mImageLoader = imageLoader;
+        mUriProvider = uriProvider;
+    }
+
+    public void attachToRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (mRecyclerView != null) {
+            throw new IllegalStateException("Already attached to " + mRecyclerView);
+        }
+        RecyclerView.Adapter<?> adapter = recyclerView.getAdapter();
+        if (adapter == null) {
+            throw new IllegalStateException("No adapter set on " + recyclerView);
+        }
+        mRecyclerView = recyclerView;
+        adapter.registerAdapterDataObserver(mDataObserver);
+        mRecyclerView.addOnScrollListener(this);
+        mRecyclerView.addOnChildAttachStateChangeListener(this);
+    }
+
+    public void setDataLoader(@Nullable DataLoader dataLoader) {
+        mDataLoader = dataLoader;
+    }
+
+    // The target size and transformations must match those of the image views, or prefetched
+    // bitmaps will not be used.
+    public void setTargetSize(int size) {
+        cancelPrefetches();
+        mTargetSize = size;
+    }
+
+    public void setTransformations(@NonNull Transformation... transformations) {
+        cancelPrefetches();
+        mTransformations = Arrays.asList(transformations);
+    }
+
+    public float getFirstBindHitRatio() {
+        int total = mFirstBindHits + mFirstBindMisses;
+        return total == 0 ? 0 : (float) mFirstBindHits / total;
+    }
+
+    public int getMaxRows() {
+        return mMaxRows;
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            cancelPrefetches();
+            mDirection = 0;
+            adjustMaxRows();
+            Clog.d(TAG, "First bind hit ratio " + getFirstBindHitRatio() + " (" + mFirstBindHits
+                    + " hits, " + mFirstBindMisses + " misses), " + mMaxRows + " rows");
+        }
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        int direction = Integer.signum(dy);
+        if (direction == 0) {
+            return;
+        }
+        if (direction != mDirection) {
+            cancelPrefetches();
+            mDirection = direction;
+        }
+
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        View child = recyclerView.getChildAt(0);
+        if (layoutManager == null || child == null || child.getHeight() == 0) {
+            return;
+        }
+        int rows = Math.abs(dy) * LOOK_AHEAD_EVENTS / child.getHeight() + 1;
+        int spans = Math.min(rows, mMaxRows) * layoutManager.getSpanCount();
+
+        GridLayoutManager.SpanSizeLookup spanSizeLookup = layoutManager.getSpanSizeLookup();
+        int itemCount = layoutManager.getItemCount();
+        int position = direction > 0 ? layoutManager.findLastVisibleItemPosition() + 1
+                : layoutManager.findFirstVisibleItemPosition() - 1;
+        while (spans > 0 && position >= 0 && position < itemCount) {
+            prefetch(position);
+            spans -= spanSizeLookup.getSpanSize(position);
+            position += direction;
+        }
+    }
+
+    @Override
+    public void onChildViewAttachedToWindow(@NonNull View view) {
+        int position = mRecyclerView.getChildAdapterPosition(view);
+        if (position == RecyclerView.NO_POSITION || mBound.get(position)) {
+            return;
+        }
+        mBound.put(position, true);
+
+        ImageRequest request = getImageRequest(position);
+        if (request == null) {
+            return;
+        }
+        mPrefetched.remove(request);
+        // Only binds caused by scrolling tell us anything about the look ahead
+        if (mRecyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+            if (mImageLoader.isImageCached(request)) {
+                mFirstBindHits++;
+                mScrollHits++;
+                Metrics.increment("image.prefetch.first_bind.hit");
+            } else {
+                mFirstBindMisses++;
+                mScrollMisses++;
+                Metrics.increment("image.prefetch.first_bind.miss");
+            }
+        }
+    }
+
+    @Override
+    public void onChildViewDetachedFromWindow(@NonNull View view) { }
+
+    private void adjustMaxRows() {
+        int total = mScrollHits + mScrollMisses;
+        if (total < MIN_FIRST_BINDS) {
+            return;
+        }
+        float hitRatio = (float) mScrollHits / total;
+        mScrollHits = 0;
+        mScrollMisses = 0;
+        if (hitRatio < TARGET_HIT_RATIO && mMaxRows < MAX_ROWS) {
+            mMaxRows++;
+            Metrics.increment("image.prefetch.rows.grow");
+        } else if (hitRatio == 1 && mMaxRows > MIN_ROWS) {
+            mMaxRows--;
+            Metrics.increment("image.prefetch.rows.shrink");
+        }
+    }
+
+    private void onDataChanged() {
+        // Positions no longer name the same items
+        cancelPrefetches();
+        mBound.clear();
+    }
+
+    private void prefetch(int position) {
+        if (mDataLoader != null) {
+            mDataLoader.loadData(position);
+        }
+        ImageRequest request = getImageRequest(position);
+        if (request != null && mPrefetched.add(request)) {
+            mImageLoader.prefetchImage(request);
+        }
+    }
+
+    private @Nullable ImageRequest getImageRequest(int position) {
+        Uri uri = mUriProvider.getImageUri(position);
+        if (uri == null) {
+            return null;
+        }
+        ImageRequest.Builder builder = new ImageRequest.Builder(uri).setTargetSize(mTargetSize);
+        for (Transformation transformation : mTransformations) {
+            builder.addTransformation(transformation);
+        }
+        return builder.build();
+    }
+
+    private void cancelPrefetches() {
+        for (ImageRequest request : mPrefetched) {
+            mImageLoader.cancelPrefetch(request);
+        }
+        mPrefetched.clear();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.ui;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import com.android.pump.util.Orientation;
+
+import java.util.Arrays;
+
+// Packs items into rows of L L, L P, P L or P P P, falling back to one item per row. Every group
+// fills exactly one row, so the span group index of an item is its row.
+@UiThread
+public class MosaicLayout {
+    private final int mSpanCount;
+    private final OrientationProvider mOrientationProvider;
+    private final Callback mCallback;
+
+    private int mCount;
+    private int[] mOrientation = new int[0];
+    private int[] mSpanSize = new int[0];
+    private int[] mSpanIndex = new int[0];
+    private int[] mGroupIndex = new int[0];
+    private int[] mGroupStart = new int[0];
+    private int mFirstChanged;
+    private int mLastChanged;
+
+    @FunctionalInterface
+    public interface OrientationProvider {
+        @Orientation int getOrientation(int index);
+    }
+
+    @FunctionalInterface
+    public interface Callback {
+        void onSpansChanged(int index, int count);
+    }
+
+    public MosaicLayout(int spanCount, @NonNull OrientationProvider orientationProvider,
+            @NonNull Callback callback) {
+        if (spanCount % 6 != 0) {
+            throw new IllegalArgumentException("Span count " + spanCount
+                    + " is not a multiple of 6");
+        }
+        mSpanCount = spanCount;
+        mOrientationProvider = orientationProvider;
+        mCallback = callback;
+    }
+
+    public void reset(int count) {
+        mCount = count;
+        if (mOrientation.length < count) {
+            int capacity = Math.max(count, mOrientation.length * 2);
+            mOrientation = Arrays.copyOf(mOrientation, capacity);
+            mSpanSize = Arrays.copyOf(mSpanSize, capacity);
+            mSpanIndex = Arrays.copyOf(mSpanIndex, capacity);
+            mGroupIndex = Arrays.copyOf(mGroupIndex, capacity);
+            mGroupStart = Arrays.copyOf(mGroupStart, capacity);
+        }
+        for (int i = 0; i < count; ++i) {
+            mOrientation[i] = mOrientationProvider.getOrientation(i);
+        }
+        int group = 0;
+        for (int start = 0; start < count; ++group) {
+            start += layoutGroup(start, group);
+        }
+    }
+
+    // Picks up a changed orientation of the item at index. Only the groups that can depend on it
+    // are laid out again, and only the items whose spans moved are reported.
+    public void invalidate(int index) {
+        int orientation = mOrientationProvider.getOrientation(index);
+        if (orientation == mOrientation[index]) {
+            return;
+        }
+        mOrientation[index] = orientation;
+
+        // A group looks at most two items ahead of its start
+        int start = mGroupStart[Math.max(index - 2, 0)];
+        int group = mGroupIndex[start];
+        mFirstChanged = Integer.MAX_VALUE;
+        mLastChanged = -1;
+        while (start < mCount) {
+            if (start > index && mGroupStart[start] == start) {
+                // Back in step with the previous layout, only the group indexes may have shifted
+                int delta = group - mGroupIndex[start];
+                if (delta != 0) {
+                    for (int i = start; i < mCount; ++i) {
+                        mGroupIndex[i] += delta;
+                    }
+                }
+                break;
+            }
+            start += layoutGroup(start, group++);
+        }
+
+        if (mLastChanged >= 0) {
+            mCallback.onSpansChanged(mFirstChanged, mLastChanged - mFirstChanged + 1);
+        }
+    }
+
+    public int getSpanSize(int index) {
+        return mSpanSize[index];
+    }
+
+    public int getSpanIndex(int index) {
+        return mSpanIndex[index];
+    }
+
+    public int getSpanGroupIndex(int index) {
+        return mGroupIndex[index];
+    }
+
+    private int layoutGroup(int start, int group) {
+        int first = getOrientation(start);
+        int second = getOrientation(start + 1);
+        if (first == Orientation.LANDSCAPE && second == Orientation.LANDSCAPE) {
+            // L L
+            return setGroup(start, group, mSpanCount / 2, mSpanCount / 2);
+        } else if (first == Orientation.LANDSCAPE && second == Orientation.PORTRAIT) {
+            // L P
+            return setGroup(start, group, mSpanCount * 2 / 3, mSpanCount * 1 / 3);
+        } else if (first == Orientation.PORTRAIT && second == Orientation.LANDSCAPE) {
+            // P L
+            return setGroup(start, group, mSpanCount * 1 / 3, mSpanCount * 2 / 3);
+        } else if (first == Orientation.PORTRAIT && second == Orientation.PORTRAIT
+                && getOrientation(start + 2) == Orientation.PORTRAIT) {
+            // P P P
+            return setGroup(start, group, mSpanCount / 3, mSpanCount / 3, mSpanCount / 3);
+        } else {
+            // L, P or unknown
+            return setGroup(start, group, mSpanCount);
+        }
+    }
+
+    private int setGroup(int start, int group, int... spanSizes) {
+        int spanIndex = 0;
+        for (int i = 0; i < spanSizes.length; ++i) {
+            if (mSpanSize[start + i] != spanSizes[i] || mSpanIndex[start + i] != spanIndex) {
+                mFirstChanged = Math.min(mFirstChanged, start + i);
+                mLastChanged = Math.max(mLastChanged, start + i);
+            }
+            mSpanSize[start + i] = spanSizes[i];
+            mSpanIndex[start + i] = spanIndex;
+            mGroupIndex[start + i] = group;
+            mGroupStart[start + i] = start;
+            spanIndex += spanSizes[i];
+        }
+        return spanSizes.length;
+    }
+
+    private @Orientation int getOrientation(int index) {
+        return index < mCount ? mOrientation[index] : Orientation.UNKNOWN;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.ui;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.core.content.ContextCompat;
+
+import com.android.pump.R;
+import com.android.pump.util.ImageLoader;
+import com.android.pump.util.Palette;
+
+// Tints the background of a view with the palette of an image. The palette of an image decoded
+// before is known right away, so the first frame is already tinted. Otherwise the tint follows as
+// soon as the image is loaded.
+@UiThread
+public class PaletteTinter implements ImageLoader.Callback {
+    private final ImageLoader mImageLoader;
+    private final View mView;
+    private Uri mUri;
+
+    public PaletteTinter(@NonNull ImageLoader imageLoader, @NonNull View view) {
+        mImageLoader = imageLoader;
+        mView = view;
+    }
+
+    public void attach() {
+        mImageLoader.addCallback(this);
+    }
+
+    public void detach() {
+        mImageLoader.removeCallback(this);
+    }
+
+    public void setImageUri(@Nullable Uri uri) {
+        mUri = uri;
+        setPalette(uri == null ? null : mImageLoader.getPalette(uri));
+    }
+
+    @Override
+    public void onImageLoaded(@NonNull Uri uri, @Nullable Bitmap bitmap) {
+        if (uri.equals(mUri)) {
+            setPalette(mImageLoader.getPalette(uri));
+        }
+    }
+
+    private void setPalette(@Nullable Palette palette) {
+        int backgroundColor = ContextCompat.getColor(mView.getContext(), R.color.colorBackground);
+        mView.setBackgroundColor(palette == null ? backgroundColor
+                : palette.getBackgroundTint(backgroundColor));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+// A memory cache that sizes itself by its hit ratio, between a sixteenth and a quarter of the
+// memory it is given, and that gives memory back as the system asks for it.
+@AnyThread
+abstract class AdaptiveCache<K, V> {
+    private static final String TAG = Clog.tag(AdaptiveCache.class);
+
+    // Number of lookups between each size adjustment.
+    private static final int WINDOW_SIZE = 128;
+    private static final float LOW_HIT_RATIO = 0.5f;
+    private static final float HIGH_HIT_RATIO = 0.9f;
+
+    private final MemoryCache mMemoryCache;
+    private final int mMinSize;
+    private final int mMaxSize;
+    private int mRequests;
+    private int mHits;
+    private int mEvictions;
+
+    AdaptiveCache(long memory) {
+        mMinSize = toCacheSize(memory / 16);
+        mMaxSize = toCacheSize(memory / 4);
+        mMemoryCache = new MemoryCache(toCacheSize(memory / 8));
+    }
+
+    protected abstract int sizeOf(@NonNull K key, @NonNull V value);
+
+    void put(@NonNull K key, @NonNull V value) {
+        mMemoryCache.put(key, value);
+    }
+
+    @Nullable V get(@NonNull K key) {
+        V value = mMemoryCache.get(key);
+        if (value != null) {
+            mHits++;
+        }
+        if (++mRequests == WINDOW_SIZE) {
+            adjustSize();
+        }
+        return value;
+    }
+
+    boolean contains(@NonNull K key) {
+        return mMemoryCache.contains(key);
+    }
+
+    int size() {
+        return mMemoryCache.size();
+    }
+
+    int maxSize() {
+        return mMemoryCache.maxSize();
+    }
+
+    // Takes a ComponentCallbacks2 trim level. Returns true if everything was dropped.
+    boolean trim(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+            return true;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_LOW) {
+            // Keeps the most recently used values, which are the ones likely to be on screen.
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 4);
+        }
+        return false;
+    }
+
+    void clear() {
+        mMemoryCache.evictAll();
+        // Start over from the bottom and let the hit ratio grow the cache again.
+        mMemoryCache.resize(mMinSize);
+        resetWindow();
+    }
+
+    private void adjustSize() {
+        float hitRatio = (float) mHits / mRequests;
+        int evictions = mMemoryCache.evictionCount() - mEvictions;
+        int maxSize = mMemoryCache.maxSize();
+        if (hitRatio < LOW_HIT_RATIO && evictions > 0 && maxSize < mMaxSize) {
+            // Values are evicted before they are requested again
+            resize(Math.min(maxSize + maxSize / 4, mMaxSize), hitRatio);
+        } else if (hitRatio > HIGH_HIT_RATIO && evictions == 0 && maxSize > mMinSize
+                && mMemoryCache.size() < maxSize / 2) {
+            // The working set fits with room to spare
+            resize(Math.max(maxSize - maxSize / 4, mMinSize), hitRatio);
+        }
+        resetWindow();
+    }
+
+    private void resize(int maxSize, float hitRatio) {
+        Clog.d(TAG, "Resizing from " + mMemoryCache.maxSize() + " to " + maxSize
+                + " bytes (hit ratio " + hitRatio + ")");
+        mMemoryCache.resize(maxSize);
+    }
+
+    private void resetWindow() {
+        mRequests = 0;
+        mHits = 0;
+        mEvictions = mMemoryCache.evictionCount();
+    }
+
+    private static int toCacheSize(long bytes) {
+        return (int) Math.min(bytes, Integer.MAX_VALUE / 4);
+    }
+
+    private class MemoryCache extends TinyLfuCache<K, V> {
+        private MemoryCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(@NonNull K key, @NonNull V value) {
+            return AdaptiveCache.this.sizeOf(key, value);
+        }
+    }
+}
@@ -17,41 +17,19 @@
 package com.android.pump.util;
 
 import android.graphics.Bitmap;
-import android.net.Uri;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 import androidx.core.graphics.BitmapCompat;
 
 @AnyThread
-class BitmapCache {
-    private static final int CACHE_SIZE =
-            (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE / 4);
-
-    private final MemoryCache mMemoryCache = new MemoryCache(CACHE_SIZE);
-
-    void put(@NonNull Uri key, @NonNull Bitmap bitmap) {
-        mMemoryCache.put(key, bitmap);
-    }
-
-    @Nullable Bitmap get(@NonNull Uri key) {
-        return mMemoryCache.get(key);
+class BitmapCache extends AdaptiveCache<ImageRequest, Bitmap> {
+    BitmapCache(int memoryClass) {
+        super(Math.min(memoryClass * 1024L * 1024L, Runtime.getRuntime().maxMemory()));
     }
 
-    void clear() {
-        mMemoryCache.evictAll();
-    }
-
-    private static class MemoryCache extends LruCache<Uri, Bitmap> {
-        private MemoryCache(int maxSize) {
-            super(maxSize);
-        }
-
-        @Override
-        protected int sizeOf(@NonNull Uri key, @NonNull Bitmap bitmap) {
-            return BitmapCompat.getAllocationByteCount(bitmap);
-        }
+    @Override
+    protected int sizeOf(@NonNull ImageRequest key, @NonNull Bitmap bitmap) {
+        return BitmapCompat.getAllocationByteCount(bitmap);
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+// Crops the middle of a bitmap to the given aspect ratio, like ImageView.ScaleType.CENTER_CROP.
+@WorkerThread
+public final class CenterCrop implements Transformation {
+    private final int mAspectWidth;
+    private final int mAspectHeight;
+
+    public CenterCrop(int aspectWidth, int aspectHeight) {
+        if (aspectWidth <= 0 || aspectHeight <= 0) {
+            throw new IllegalArgumentException("Invalid aspect ratio " + aspectWidth + ":"
+                    + aspectHeight);
+        }
+        mAspectWidth = aspectWidth;
+        mAspectHeight = aspectHeight;
+    }
+
+    @Override
+    public @NonNull String getKey() {
+        return "center_crop(" + mAspectWidth + ":" + mAspectHeight + ")";
+    }
+
+    @Override
+    public @NonNull Bitmap transform(@NonNull Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if ((long) width * mAspectHeight > (long) height * mAspectWidth) {
+            width = Math.max(1, (int) ((long) height * mAspectWidth / mAspectHeight));
+        } else {
+            height = Math.max(1, (int) ((long) width * mAspectHeight / mAspectWidth));
+        }
+        if (width == source.getWidth() && height == source.getHeight()) {
+            return source;
+        }
+        return Bitmap.createBitmap(source, (source.getWidth() - width) / 2,
+                (source.getHeight() - height) / 2, width, height);
+    }
+}
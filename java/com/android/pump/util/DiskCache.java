@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Data that is expensive to produce again, such as transformed images (stored as PNG) or HTTP
+// responses, in files named after a hash of their key. The least recently used files are deleted
+// first. The file modification times keep the order across runs.
+@WorkerThread
+class DiskCache {
+    private static final String TAG = Clog.tag(DiskCache.class);
+
+    private final File mDir;
+    private final long mMaxSize;
+    // File name to length, least recently used first
+    private final Map<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mOpened;
+
+    DiskCache(@NonNull File dir, long maxSize) {
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    boolean contains(@NonNull String key) {
+        synchronized (this) {
+            open();
+            return mEntries.containsKey(getFileName(key));
+        }
+    }
+
+    @Nullable Bitmap get(@NonNull String key) {
+        File file = getFile(key);
+        if (file == null) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            Clog.w(TAG, "Failed to decode " + file);
+            synchronized (this) {
+                removeFile(file.getName());
+            }
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    @Nullable byte[] getBytes(@NonNull String key) {
+        File file = getFile(key);
+        if (file == null) {
+            return null;
+        }
+        try {
+            byte[] data = IoUtils.readFromFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to read " + file, e);
+            synchronized (this) {
+                removeFile(file.getName());
+            }
+            return null;
+        }
+    }
+
+    void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        write(key, (outputStream) -> {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream)) {
+                throw new IOException("Failed to encode " + key);
+            }
+        });
+    }
+
+    void putBytes(@NonNull String key, @NonNull byte[] data) {
+        write(key, (outputStream) -> outputStream.write(data));
+    }
+
+    synchronized void remove(@NonNull String key) {
+        open();
+        removeFile(getFileName(key));
+    }
+
+    private @Nullable File getFile(@NonNull String key) {
+        String name = getFileName(key);
+        synchronized (this) {
+            open();
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+        }
+        return new File(mDir, name);
+    }
+
+    private void write(@NonNull String key, @NonNull Writer writer) {
+        String name = getFileName(key);
+        File file = new File(mDir, name);
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fileOutputStream = null;
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("Failed to create " + mDir);
+            }
+            fileOutputStream = atomicFile.startWrite();
+            writer.writeTo(fileOutputStream);
+            atomicFile.finishWrite(fileOutputStream);
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to write " + file, e);
+            if (fileOutputStream != null) {
+                atomicFile.failWrite(fileOutputStream);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            open();
+            Long old = mEntries.put(name, file.length());
+            mSize += file.length() - (old == null ? 0 : old);
+            trim();
+        }
+    }
+
+    private void open() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().indexOf('.') >= 0) {
+                // Left behind by an interrupted AtomicFile write
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            mSize -= entry.getValue();
+            new File(mDir, entry.getKey()).delete();
+        }
+    }
+
+    private void removeFile(@NonNull String name) {
+        Long length = mEntries.remove(name);
+        if (length != null) {
+            mSize -= length;
+            new File(mDir, name).delete();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void writeTo(@NonNull OutputStream outputStream) throws IOException;
+    }
+
+    private static @NonNull String getFileName(@NonNull String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return ImageRequest.toHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
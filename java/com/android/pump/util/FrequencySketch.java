@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import androidx.annotation.NonNull;
+
+// Count-min sketch with four 4-bit counters per key. All counters are halved once the number of
+// increments reaches ten times the table size, so that old popularity fades.
+class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] mTable;
+    private final int mTableMask;
+    private final int mSampleSize;
+    private int mSize;
+
+    FrequencySketch(int capacity) {
+        int length = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mTable = new long[length];
+        mTableMask = length - 1;
+        mSampleSize = 10 * length;
+    }
+
+    int frequency(@NonNull Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; ++i) {
+            int offset = (start + i) << 2;
+            int count = (int) ((mTable[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(@NonNull Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; ++i) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize == mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[index] & mask) == mask) {
+            return false;
+        }
+        mTable[index] += 1L << offset;
+        return true;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < mTable.length; ++i) {
+            odd += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long index = (hash + SEEDS[i]) * SEEDS[i];
+        index += index >>> 32;
+        return (int) index & mTableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
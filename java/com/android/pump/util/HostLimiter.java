@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.pump.concurrent.Executors;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Limits the requests to each host to a number of open connections and, with a token bucket, to
+// a number of requests per second. Requests over either limit wait in a queue per host, highest
+// priority first, then in arrival order. Requests may wait blocking a thread, or asynchronously.
+@AnyThread
+class HostLimiter {
+    private final int mMaxConnections;
+    private final double mRequestsPerSecond;
+    private final int mBurst;
+    private final Map<String, Host> mHosts = new HashMap<>();
+    private long mSequence;
+
+    HostLimiter(int maxConnections, double requestsPerSecond, int burst) {
+        mMaxConnections = maxConnections;
+        mRequestsPerSecond = requestsPerSecond;
+        mBurst = burst;
+    }
+
+    // Blocks until a request to the host may be made, then returns how long it waited, in
+    // milliseconds. Every acquire must be followed by a release.
+    @WorkerThread
+    long acquire(@NonNull String host, int priority) throws InterruptedIOException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            Host state = mHosts.get(host);
+            if (state == null) {
+                state = new Host(mBurst, start);
+                mHosts.put(host, state);
+            }
+            Waiter waiter = new Waiter(priority, mSequence++, null, null);
+            state.mQueue.add(waiter);
+            try {
+                while (true) {
+                    if (state.mQueue.peek() == waiter && state.mConnections < mMaxConnections) {
+                        long delayNanos = state.takeToken(System.nanoTime());
+                        if (delayNanos == 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, delayNanos);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                state.mQueue.remove(waiter);
+                dispatch(host, state);
+                notifyAll();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + host);
+            }
+            state.mQueue.poll();
+            ++state.mConnections;
+            // The next in line may be able to go as well
+            dispatch(host, state);
+            notifyAll();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // Hands onAcquired to the executor once a request to the host may be made, without holding
+    // a thread while waiting. The executor must not run it in place. Returns a ticket for
+    // cancel(). Every onAcquired must be followed by a release.
+    synchronized @NonNull Object acquireAsync(@NonNull String host, int priority,
+            @NonNull Executor executor, @NonNull Runnable onAcquired) {
+        Host state = mHosts.get(host);
+        if (state == null) {
+            state = new Host(mBurst, System.nanoTime());
+            mHosts.put(host, state);
+        }
+        Waiter waiter = new Waiter(priority, mSequence++, executor, onAcquired);
+        state.mQueue.add(waiter);
+        dispatch(host, state);
+        notifyAll();
+        return waiter;
+    }
+
+    // Returns false if the request has already been handed over, and so must be released.
+    synchronized boolean cancel(@NonNull String host, @NonNull Object ticket) {
+        Host state = mHosts.get(host);
+        if (state == null || !state.mQueue.remove(ticket)) {
+            return false;
+        }
+        dispatch(host, state);
+        notifyAll();
+        return true;
+    }
+
+    synchronized void release(@NonNull String host) {
+        Host state = mHosts.get(host);
+        --state.mConnections;
+        state.refill(System.nanoTime());
+        if (state.mConnections == 0 && state.mQueue.isEmpty() && state.mTokens >= mBurst) {
+            // A fresh host is exactly the same, no need to remember this one
+            mHosts.remove(host);
+        }
+        dispatch(host, state);
+        notifyAll();
+    }
+
+    // Hands over the asynchronous requests at the head of the queue that may go. Blocking ones
+    // see for themselves.
+    private void dispatch(@NonNull String host, @NonNull Host state) {
+        while (true) {
+            Waiter waiter = state.mQueue.peek();
+            if (waiter == null || waiter.mOnAcquired == null
+                    || state.mConnections >= mMaxConnections) {
+                return;
+            }
+            long delayNanos = state.takeToken(System.nanoTime());
+            if (delayNanos > 0) {
+                if (!state.mTimerScheduled) {
+                    state.mTimerScheduled = true;
+                    Executors.executeDelayed(Executors.directExecutor(), () -> onTimer(host),
+                            delayNanos, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+            state.mQueue.poll();
+            ++state.mConnections;
+            waiter.mExecutor.execute(waiter.mOnAcquired);
+        }
+    }
+
+    private synchronized void onTimer(@NonNull String host) {
+        Host state = mHosts.get(host);
+        if (state != null) {
+            state.mTimerScheduled = false;
+            dispatch(host, state);
+            notifyAll();
+        }
+    }
+
+    private class Host {
+        private final PriorityQueue<Waiter> mQueue = new PriorityQueue<>();
+        private int mConnections;
+        private double mTokens;
+        private long mRefillTime;
+        private boolean mTimerScheduled;
+
+        private Host(double tokens, long now) {
+            mTokens = tokens;
+            mRefillTime = now;
+        }
+
+        // Returns 0 if a token was taken, or how long to wait for the next one, in nanoseconds.
+        private long takeToken(long now) {
+            refill(now);
+            if (mTokens >= 1) {
+                mTokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - mTokens)
+                    * TimeUnit.SECONDS.toNanos(1) / mRequestsPerSecond));
+        }
+
+        private void refill(long now) {
+            mTokens = Math.min(mBurst, mTokens
+                    + (now - mRefillTime) * mRequestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            mRefillTime = now;
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final int mPriority;
+        private final long mSequence;
+        // Null for blocking requests
+        private final Executor mExecutor;
+        private final Runnable mOnAcquired;
+
+        private Waiter(int priority, long sequence, @Nullable Executor executor,
+                @Nullable Runnable onAcquired) {
+            mPriority = priority;
+            mSequence = sequence;
+            mExecutor = executor;
+            mOnAcquired = onAcquired;
+        }
+
+        @Override
+        public int compareTo(@NonNull Waiter other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
@@ -19,22 +19,37 @@ package com.android.pump.util;
 import android.Manifest;
 import android.net.TrafficStats;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import androidx.annotation.WorkerThread;
 
+import com.android.pump.concurrent.Executors;
+import com.android.pump.concurrent.RetryScheduler;
+import com.android.pump.concurrent.SettableFuture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @WorkerThread
@@ -43,9 +58,34 @@ public final class Http {
 
     private static final int TRAFFIC_STATS_TAG = 4711; // TODO Assign a better value
     private static final byte[] EMPTY_DATA = new byte[0];
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    // Without these a stalled server holds the connection, and the host's slot, forever
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    // Requests waiting for the same host go in order of priority.
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    // Per host; a burst of requests beyond this waits instead of tripping quotas
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final double MAX_REQUESTS_PER_SECOND_PER_HOST = 5;
+    private static final int MAX_REQUEST_BURST_PER_HOST = 10;
+    private static final HostLimiter LIMITER = new HostLimiter(MAX_CONNECTIONS_PER_HOST,
+            MAX_REQUESTS_PER_SECOND_PER_HOST, MAX_REQUEST_BURST_PER_HOST);
+
+    private static final BodyReader<byte[]> READ_ALL = IoUtils::readFromStream;
+
+    private static volatile HttpCache sCache;
 
     private Http() { }
 
+    // Caches the responses to all GET requests, or none if null.
+    public static void setCache(@Nullable HttpCache cache) {
+        sCache = cache;
+    }
+
     @RequiresPermission(Manifest.permission.INTERNET)
     public static @NonNull byte[] post(@NonNull String uri) throws IOException {
         return post(uri, Headers.NONE, EMPTY_DATA);
@@ -66,7 +106,7 @@ public final class Http {
     @RequiresPermission(Manifest.permission.INTERNET)
     public @NonNull static byte[] post(@NonNull String uri, @NonNull Headers headers,
             @NonNull byte[] data) throws IOException {
-        return getOrPost(uri, headers, data);
+        return getOrPost(uri, headers, data, PRIORITY_NORMAL, READ_ALL);
     }
 
     @RequiresPermission(Manifest.permission.INTERNET)
@@ -77,47 +117,181 @@ public final class Http {
     @RequiresPermission(Manifest.permission.INTERNET)
     public static @NonNull byte[] get(@NonNull String uri, @NonNull Headers headers)
             throws IOException {
-        return getOrPost(uri, headers, null);
+        return get(uri, headers, PRIORITY_NORMAL);
     }
 
-    private static byte[] getOrPost(String uri, Headers headers, byte[] data) throws IOException {
-        final URL url = new URL(uri);
-        int numRetries = 3;
-        for (;;) {
-            long retryDelaySec = 5;
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static @NonNull byte[] get(@NonNull String uri, @NonNull Headers headers,
+            int priority) throws IOException {
+        return getOrPost(uri, headers, null, priority, READ_ALL);
+    }
+
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static @NonNull <T> T get(@NonNull String uri, @NonNull BodyReader<T> reader)
+            throws IOException {
+        return get(uri, Headers.NONE, PRIORITY_NORMAL, reader);
+    }
+
+    // Hands the body to the reader as it arrives, for readers that only need part of it.
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static @NonNull <T> T get(@NonNull String uri, @NonNull Headers headers, int priority,
+            @NonNull BodyReader<T> reader) throws IOException {
+        return getOrPost(uri, headers, null, priority, reader);
+    }
+
+    @AnyThread
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static @NonNull SettableFuture<byte[]> getAsync(@NonNull String uri,
+            @NonNull Headers headers, int priority) {
+        return getAsync(uri, headers, priority, READ_ALL);
+    }
+
+    // Like get(), but waits for the host without holding a thread, see HostLimiter. Only the
+    // request itself runs on a thread, one of a few shared by all asynchronous requests.
+    // Cancelling the future takes the request out of the queue, or drops its result.
+    @AnyThread
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static @NonNull <T> SettableFuture<T> getAsync(@NonNull String uri,
+            @NonNull Headers headers, int priority, @NonNull BodyReader<T> reader) {
+        SettableFuture<T> future = new SettableFuture<>();
+        IoHolder.EXECUTOR.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
             try {
-                return getOrPost(url, headers, data);
-            } catch (Http.HttpError e) {
-                int responseCode = e.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
-                    String retryAfter = e.getHeaders().getField("Retry-After");
-                    if (retryAfter != null) {
-                        retryDelaySec = Math.max(0, Long.valueOf(retryAfter));
+                URL url = new URL(uri);
+                HttpCache cache = sCache;
+                HttpCache.Entry cached = cache == null ? null : cache.get(uri);
+                if (cached != null) {
+                    byte[] body = cache.getFresh(cached);
+                    if (body != null) {
+                        future.set(read(body, reader));
+                        return;
                     }
-                } else if (responseCode != HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
-                    throw e;
                 }
-                if (numRetries-- <= 0) {
-                    throw e;
+
+                String host = url.getHost();
+                long start = System.nanoTime();
+                Object ticket = LIMITER.acquireAsync(host, priority, IoHolder.EXECUTOR, () -> {
+                    recordWait(host,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    try {
+                        if (!future.isDone()) {
+                            future.set(request(url, headers, null, cache, cached, reader));
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        future.setException(e);
+                    } finally {
+                        LIMITER.release(host);
+                    }
+                });
+                future.addCallback(new SettableFuture.Callback<T>() {
+                    @Override
+                    public void onSuccess(@NonNull T value) { }
+
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        if (future.isCancelled()) {
+                            LIMITER.cancel(host, ticket);
+                        }
+                    }
+                }, Executors.directExecutor());
+            } catch (IOException | RuntimeException e) {
+                future.setException(e);
+            }
+        });
+        return future;
+    }
+
+    // Returns how long to wait, in milliseconds, before retrying a request that failed with the
+    // given exception, or -1 if retrying will not help. Asynchronous callers retry on their own,
+    // see RetryScheduler, so that no thread is held while waiting.
+    public static long getRetryDelay(@NonNull IOException e) {
+        if (e instanceof SocketTimeoutException || e instanceof SocketException
+                || e instanceof UnknownHostException) {
+            // Network trouble, which may well be over soon, but not right away
+            return DEFAULT_RETRY_DELAY_MILLIS;
+        } else if (!(e instanceof HttpError)) {
+            // Cancelled, or a response that makes no sense, which asking again will not fix
+            return -1;
+        }
+        HttpError error = (HttpError) e;
+        int responseCode = error.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+            String retryAfter = error.getHeaders().getField("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter)));
+                } catch (NumberFormatException ignored) {
+                    // An HTTP date, fall back to the default delay
                 }
+            }
+            return DEFAULT_RETRY_DELAY_MILLIS;
+        } else if (responseCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
+            return DEFAULT_RETRY_DELAY_MILLIS;
+        }
+        return -1;
+    }
+
+    // Blocking callers have a thread to wait on anyway, so failed requests are retried here.
+    private static <T> T getOrPost(String uri, Headers headers, byte[] data, int priority,
+            BodyReader<T> reader) throws IOException {
+        URL url = new URL(uri);
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                return getOrPost(url, headers, data, priority, reader);
             } catch (IOException e) {
-                if (numRetries-- <= 0) {
+                long delay = getRetryDelay(e);
+                if (delay >= 0) {
+                    delay = RetryScheduler.getDelay(attempt, delay);
+                }
+                if (delay < 0) {
                     throw e;
                 }
-            }
-
-            if (retryDelaySec > 0) {
+                Clog.w(TAG, "Request to " + uri + " failed, retrying", e);
                 try {
-                    Thread.sleep(TimeUnit.SECONDS.toMillis(retryDelaySec));
-                } catch (InterruptedException e) {
-                    Clog.w(TAG, "Interrupted waiting for retry", e);
-                    throw new IOException(e);
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interrupted = new InterruptedIOException();
+                    interrupted.initCause(e);
+                    throw interrupted;
                 }
             }
         }
     }
 
-    private static byte[] getOrPost(URL url, Headers headers, byte[] data) throws IOException {
+    private static <T> T getOrPost(URL url, Headers headers, byte[] data, int priority,
+            BodyReader<T> reader) throws IOException {
+        HttpCache cache = data == null ? sCache : null;
+        String uri = url.toString();
+        HttpCache.Entry cached = cache == null ? null : cache.get(uri);
+        if (cached != null) {
+            byte[] body = cache.getFresh(cached);
+            if (body != null) {
+                return read(body, reader);
+            }
+        }
+
+        String host = url.getHost();
+        recordWait(host, LIMITER.acquire(host, priority));
+        try {
+            return request(url, headers, data, cache, cached, reader);
+        } finally {
+            LIMITER.release(host);
+        }
+    }
+
+    private static void recordWait(String host, long waitMillis) {
+        Metrics.increment("http.queue.requests");
+        Metrics.add("http.queue.wait_ms", waitMillis);
+        Metrics.add("http.queue.wait_ms." + host, waitMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T request(URL url, Headers headers, byte[] data, HttpCache cache,
+            HttpCache.Entry cached, BodyReader<T> reader) throws IOException {
+        String uri = url.toString();
         HttpURLConnection connection = null;
         OutputStream outputStream = null;
         InputStream inputStream = null;
@@ -125,7 +299,12 @@ public final class Http {
         try {
             TrafficStats.setThreadStatsTag(TRAFFIC_STATS_TAG);
             connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
             headers.apply(connection);
+            if (cached != null) {
+                cached.applyValidators(connection);
+            }
 
             if (data != null) {
                 connection.setDoOutput(true);
@@ -136,9 +315,28 @@ public final class Http {
                 checkResponseCode(connection);
             }
 
+            if (cached != null
+                    && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return read(cache.putNotModified(uri, cached, connection), reader);
+            }
             checkResponseCode(connection);
             inputStream = connection.getInputStream();
-            return IoUtils.readFromStream(inputStream);
+            if (cache == null) {
+                return reader.read(inputStream);
+            } else if (reader == READ_ALL) {
+                byte[] body = IoUtils.readFromStream(inputStream);
+                cache.put(uri, connection, body);
+                return (T) body;
+            }
+            // Only cached if the reader got to the end of the body, the rest of it is not
+            // downloaded just for the cache
+            RecordingInputStream recording = new RecordingInputStream(inputStream);
+            T result = reader.read(recording);
+            byte[] body = recording.getBody();
+            if (body != null) {
+                cache.put(uri, connection, body);
+            }
+            return result;
         } finally {
             IoUtils.close(inputStream);
             IoUtils.close(outputStream);
@@ -166,11 +364,102 @@ public final class Http {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T> T read(byte[] body, BodyReader<T> reader) throws IOException {
+        if (reader == READ_ALL) {
+            return (T) body;
+        }
+        return reader.read(new ByteArrayInputStream(body));
+    }
+
     private static void disconnect(HttpURLConnection connection) {
         if (connection == null) return;
         connection.disconnect();
     }
 
+    // Threads for the asynchronous requests that are let through by the limiter. Waiting ones
+    // hold none, so a few are enough for any number of requests.
+    private static final class IoHolder {
+        private static final int MAX_THREADS = 8;
+        private static final long KEEP_ALIVE_SECONDS = 30;
+        private static final Executor EXECUTOR;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    (runnable) -> new Thread(runnable, "Http.io"));
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    // Reads the response body. The stream is closed by Http, and whatever is left unread is
+    // thrown away.
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        @NonNull T read(@NonNull InputStream inputStream) throws IOException;
+    }
+
+    // Keeps a copy of everything read through it.
+    private static class RecordingInputStream extends FilterInputStream {
+        // Enough for what follows a JSON document, such as a trailing newline
+        private static final int MAX_UNREAD_LENGTH = 4096;
+
+        private final ByteArrayOutputStream mRecording = new ByteArrayOutputStream();
+        private boolean mEnded;
+
+        private RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mRecording.write(b);
+            } else {
+                mEnded = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int num = super.read(buffer, offset, length);
+            if (num > 0) {
+                mRecording.write(buffer, offset, num);
+            } else if (num < 0) {
+                mEnded = true;
+            }
+            return num;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            int num = read(buffer, 0, buffer.length);
+            return Math.max(num, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        // Returns the whole body, or null if the reader stopped well before its end.
+        private @Nullable byte[] getBody() throws IOException {
+            byte[] buffer = new byte[MAX_UNREAD_LENGTH];
+            int unread = 0;
+            while (!mEnded && unread < MAX_UNREAD_LENGTH) {
+                int num = read(buffer, 0, MAX_UNREAD_LENGTH - unread);
+                if (num > 0) {
+                    unread += num;
+                }
+            }
+            return mEnded ? mRecording.toByteArray() : null;
+        }
+    }
+
     public static final class ContentType {
         private ContentType() { }
     }
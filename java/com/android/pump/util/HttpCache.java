@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Responses to GET requests, kept on disk for Http. Fresh responses, per Cache-Control max-age or
+// Expires, are served without any network access. Stale ones are revalidated with If-None-Match
+// and If-Modified-Since, so that an unchanged response only costs a 304. Vary is not supported.
+@AnyThread
+public class HttpCache {
+    private static final String TAG = Clog.tag(HttpCache.class);
+
+    private static final int VERSION = 2;
+
+    private final DiskCache mDiskCache;
+    private long mHitCount;
+    private long mRevalidateCount;
+    private long mMissCount;
+
+    public HttpCache(@NonNull File dir, long maxSize) {
+        mDiskCache = new DiskCache(dir, maxSize);
+    }
+
+    // Responses served from the cache without going to the network.
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    // Responses served from the cache after the server answered 304 Not Modified.
+    public synchronized long getRevalidateCount() {
+        return mRevalidateCount;
+    }
+
+    // Responses fetched in full, whether cached before or not.
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @WorkerThread
+    @Nullable Entry get(@NonNull String uri) {
+        byte[] data = mDiskCache.getBytes(uri);
+        if (data == null) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != VERSION || !uri.equals(readString(in))) {
+                mDiskCache.remove(uri);
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.mResponseTime = in.readLong();
+            entry.mExpires = in.readLong();
+            entry.mETag = readString(in);
+            entry.mLastModified = readString(in);
+            entry.mBody = new byte[in.readInt()];
+            in.readFully(entry.mBody);
+            return entry;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to read cached response for " + uri, e);
+            mDiskCache.remove(uri);
+            return null;
+        }
+    }
+
+    // Returns the body served from the cache, or null if it is stale and must be revalidated.
+    @WorkerThread
+    @Nullable byte[] getFresh(@NonNull Entry entry) {
+        if (System.currentTimeMillis() >= entry.mExpires) {
+            return null;
+        }
+        synchronized (this) {
+            mHitCount++;
+        }
+        Metrics.increment("http.cache.hit");
+        return entry.mBody;
+    }
+
+    // Records a 304 answer to a revalidation and returns the cached body.
+    @WorkerThread
+    @NonNull byte[] putNotModified(@NonNull String uri, @NonNull Entry entry,
+            @NonNull HttpURLConnection connection) {
+        long lifetime = getLifetime(connection);
+        if (lifetime < 0) {
+            // Nothing new said about freshness, keep the previous lifetime
+            lifetime = Math.max(0, entry.mExpires - entry.mResponseTime);
+        }
+        entry.mResponseTime = System.currentTimeMillis();
+        entry.mExpires = entry.mResponseTime + lifetime;
+        String eTag = connection.getHeaderField("ETag");
+        if (eTag != null) {
+            entry.mETag = eTag;
+        }
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (lastModified != null) {
+            entry.mLastModified = lastModified;
+        }
+        write(uri, entry);
+        synchronized (this) {
+            mRevalidateCount++;
+        }
+        Metrics.increment("http.cache.revalidate");
+        return entry.mBody;
+    }
+
+    @WorkerThread
+    void put(@NonNull String uri, @NonNull HttpURLConnection connection, @NonNull byte[] body) {
+        synchronized (this) {
+            mMissCount++;
+        }
+        Metrics.increment("http.cache.miss");
+        String cacheControl = getCacheControl(connection);
+        if (cacheControl.contains("no-store")) {
+            mDiskCache.remove(uri);
+            return;
+        }
+        Entry entry = new Entry();
+        entry.mResponseTime = System.currentTimeMillis();
+        entry.mExpires = entry.mResponseTime + Math.max(0, getLifetime(connection));
+        entry.mETag = connection.getHeaderField("ETag");
+        entry.mLastModified = connection.getHeaderField("Last-Modified");
+        entry.mBody = body;
+        if (entry.mExpires <= entry.mResponseTime && entry.mETag == null
+                && entry.mLastModified == null) {
+            // Could neither be served nor revalidated
+            mDiskCache.remove(uri);
+            return;
+        }
+        write(uri, entry);
+    }
+
+    private void write(@NonNull String uri, @NonNull Entry entry) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(entry.mBody.length + 256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeInt(VERSION);
+            writeString(out, uri);
+            out.writeLong(entry.mResponseTime);
+            out.writeLong(entry.mExpires);
+            writeString(out, entry.mETag);
+            writeString(out, entry.mLastModified);
+            out.writeInt(entry.mBody.length);
+            out.write(entry.mBody);
+            out.flush();
+        } catch (IOException e) {
+            // Not thrown by in-memory streams
+            throw new IllegalStateException(e);
+        }
+        mDiskCache.putBytes(uri, buffer.toByteArray());
+    }
+
+    // Returns how long, in milliseconds, a response stays fresh, or -1 if the headers do not say.
+    private static long getLifetime(@NonNull HttpURLConnection connection) {
+        String cacheControl = getCacheControl(connection);
+        if (cacheControl.contains("no-cache")) {
+            return 0;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(
+                            Math.max(0, Long.parseLong(directive.substring(8))));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        if (connection.getHeaderField("Expires") != null) {
+            // Invalid dates, such as "0", mean already expired
+            long expires = connection.getHeaderFieldDate("Expires", 0);
+            return Math.max(0, expires - System.currentTimeMillis());
+        }
+        return -1;
+    }
+
+    private static @NonNull String getCacheControl(@NonNull HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        return cacheControl == null ? "" : cacheControl.toLowerCase(Locale.US);
+    }
+
+    // Unlike writeUTF(), not limited to 64k, as uris and validators may be long.
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static @Nullable String readString(@NonNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    static class Entry {
+        private long mResponseTime;
+        private long mExpires;
+        private String mETag;
+        private String mLastModified;
+        private byte[] mBody;
+
+        void applyValidators(@NonNull HttpURLConnection connection) {
+            if (mETag != null) {
+                connection.setRequestProperty("If-None-Match", mETag);
+            }
+            if (mLastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", mLastModified);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.net.Uri;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.LruCache;
+import androidx.core.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+// Small facts learned about images when they are decoded, kept across runs so that they are
+// available before the image is loaded again.
+@AnyThread
+class ImageInfoStore {
+    private static final String TAG = Clog.tag(ImageInfoStore.class);
+
+    private static final int VERSION = 4;
+    private static final int MAX_ENTRIES = 4096;
+
+    private final AtomicFile mFile;
+    private final LruCache<Uri, Info> mInfos = new LruCache<>(MAX_ENTRIES);
+    private boolean mDirty;
+
+    ImageInfoStore(@NonNull File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    synchronized @Nullable byte[] getPreview(@NonNull Uri uri) {
+        Info info = mInfos.get(uri);
+        return info == null ? null : info.mPreview;
+    }
+
+    synchronized void putPreview(@NonNull Uri uri, @NonNull byte[] preview) {
+        getOrCreate(uri).mPreview = preview;
+        mDirty = true;
+    }
+
+    synchronized @Nullable byte[] getDigest(@NonNull Uri uri) {
+        Info info = mInfos.get(uri);
+        return info == null ? null : info.mDigest;
+    }
+
+    // Whether the digest is still that of the local file, which has not changed since if its
+    // size and modification time are the same.
+    synchronized boolean isDigestCurrent(@NonNull Uri uri, long size, long modified) {
+        Info info = mInfos.get(uri);
+        return size >= 0 && info != null && info.mDigest != null && info.mSize == size
+                && info.mModified == modified;
+    }
+
+    // The size and modification time are those of the local file the digest is of, or -1.
+    synchronized void putDigest(@NonNull Uri uri, @NonNull byte[] digest, long size,
+            long modified) {
+        Info info = getOrCreate(uri);
+        info.mDigest = digest;
+        info.mSize = size;
+        info.mModified = modified;
+        mDirty = true;
+    }
+
+    synchronized void removeDigest(@NonNull Uri uri) {
+        Info info = mInfos.get(uri);
+        if (info != null && info.mDigest != null) {
+            info.mDigest = null;
+            mDirty = true;
+        }
+    }
+
+    synchronized @Nullable byte[] getPalette(@NonNull Uri uri) {
+        Info info = mInfos.get(uri);
+        return info == null ? null : info.mPalette;
+    }
+
+    synchronized void putPalette(@NonNull Uri uri, @NonNull byte[] palette) {
+        getOrCreate(uri).mPalette = palette;
+        mDirty = true;
+    }
+
+    @WorkerThread
+    void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                Uri uri = Uri.parse(in.readUTF());
+                Info info = new Info();
+                info.mPreview = readBytes(in);
+                info.mDigest = readBytes(in);
+                info.mSize = in.readLong();
+                info.mModified = in.readLong();
+                info.mPalette = readBytes(in);
+                synchronized (this) {
+                    // Anything learned since startup is more recent
+                    if (mInfos.get(uri) == null) {
+                        mInfos.put(uri, info);
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to load image info", e);
+        } finally {
+            IoUtils.close(in);
+        }
+    }
+
+    @WorkerThread
+    void save() {
+        Map<Uri, Info> infos;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            infos = mInfos.snapshot();
+            mDirty = false;
+        }
+
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(VERSION);
+            out.writeInt(infos.size());
+            // Least recently used first, so that loading restores the order
+            for (Map.Entry<Uri, Info> entry : infos.entrySet()) {
+                out.writeUTF(entry.getKey().toString());
+                writeBytes(out, entry.getValue().mPreview);
+                writeBytes(out, entry.getValue().mDigest);
+                out.writeLong(entry.getValue().mSize);
+                out.writeLong(entry.getValue().mModified);
+                writeBytes(out, entry.getValue().mPalette);
+            }
+            out.flush();
+            mFile.finishWrite(fileOutputStream);
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to save image info", e);
+            if (fileOutputStream != null) {
+                mFile.failWrite(fileOutputStream);
+            }
+            synchronized (this) {
+                mDirty = true;
+            }
+        }
+    }
+
+    private @NonNull Info getOrCreate(@NonNull Uri uri) {
+        Info info = mInfos.get(uri);
+        if (info == null) {
+            info = new Info();
+            mInfos.put(uri, info);
+        }
+        return info;
+    }
+
+    private static @Nullable byte[] readBytes(@NonNull DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream out, @Nullable byte[] data)
+            throws IOException {
+        if (data == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(data.length);
+            out.write(data);
+        }
+    }
+
+    private static class Info {
+        private byte[] mPreview;
+        private byte[] mDigest;
+        private long mSize = -1;
+        private long mModified = -1;
+        private byte[] mPalette;
+    }
+}
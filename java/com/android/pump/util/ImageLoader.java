@@ -16,9 +16,13 @@
 
 package com.android.pump.util;
 
+import android.content.ContentResolver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -27,33 +31,76 @@ import androidx.collection.ArrayMap;
 import androidx.collection.ArraySet;
 
 import com.android.pump.concurrent.Executors;
+import com.android.pump.concurrent.RetryScheduler;
+import com.android.pump.concurrent.SettableFuture;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @AnyThread
 public class ImageLoader {
     private static final String TAG = Clog.tag(ImageLoader.class);
 
-    private final BitmapCache mBitmapCache = new BitmapCache();
+    // Prefetches are only started while fewer loads than this are running.
+    private static final int PREFETCH_MAX_ACTIVE_LOADS = 2;
+    private static final String[] STAT_PROJECTION = {
+        MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED
+    };
+    // Opaque images up to this size are decoded to RGB 565 unless a request picks a config.
+    private static final int AUTO_RGB_565_MAX_PIXELS = 512 * 512;
+    private static final long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+
+    private final BitmapCache mBitmapCache;
     private final OrientationCache mOrientationCache = new OrientationCache();
+    private final NegativeCache mNegativeCache = new NegativeCache();
+    private final ImageInfoStore mInfoStore;
+    private final ThumbnailAtlas mThumbnailAtlas;
+    private final DiskCache mDiskCache;
+    private final MosaicStore mMosaicStore = new MosaicStore();
+    private final ContentResolver mContentResolver;
     private final Executor mExecutor;
+    private final RetryScheduler mRetryScheduler;
     private final Set<Map.Entry<Executor, Callback>> mCallbacks = new ArraySet<>();
-    private final Map<Uri, List<Map.Entry<Executor, Callback>>> mLoadCallbacks = new ArrayMap<>();
+    private final Map<ImageRequest, List<Map.Entry<Executor, Callback>>> mLoadCallbacks =
+            new ArrayMap<>();
+    private final Deque<ImageRequest> mPrefetchQueue = new ArrayDeque<>();
+    private int mActiveLoads;
 
     @FunctionalInterface
     public interface Callback {
         void onImageLoaded(@NonNull Uri uri, @Nullable Bitmap bitmap);
     }
 
-    public ImageLoader(@NonNull Executor executor) {
+    public ImageLoader(@NonNull ContentResolver contentResolver, @NonNull Executor executor,
+            int memoryClass, @NonNull File cacheDir) {
+        mBitmapCache = new BitmapCache(memoryClass);
+        mInfoStore = new ImageInfoStore(new File(cacheDir, "image_info"));
+        mThumbnailAtlas = new ThumbnailAtlas(cacheDir);
+        mDiskCache = new DiskCache(new File(cacheDir, "images"), DISK_CACHE_SIZE);
+        mContentResolver = contentResolver;
         mExecutor = executor;
+        mRetryScheduler = new RetryScheduler(executor);
+
+        mExecutor.execute(mInfoStore::load);
     }
 
     public void addCallback(@NonNull Callback callback) {
@@ -86,71 +133,623 @@ public class ImageLoader {
 
     public void loadImage(@NonNull Uri uri, @NonNull Callback callback,
             @NonNull Executor executor) {
+        loadImage(new ImageRequest.Builder(uri).build(), callback, executor);
+    }
+
+    // Loads the thumbnail of a media item, going through the thumbnail atlas.
+    public void loadThumbnail(long mediaId, @NonNull Uri uri, @NonNull Callback callback) {
+        loadThumbnail(mediaId, uri, callback, Executors.uiThreadExecutor());
+    }
+
+    public void loadThumbnail(long mediaId, @NonNull Uri uri, @NonNull Callback callback,
+            @NonNull Executor executor) {
+        loadImage(new ImageRequest.Builder(uri).setMediaId(mediaId).build(), callback, executor);
+    }
+
+    public void loadImage(@NonNull ImageRequest request, @NonNull Callback callback) {
+        loadImage(request, callback, Executors.uiThreadExecutor());
+    }
+
+    public void loadImage(@NonNull ImageRequest request, @NonNull Callback callback,
+            @NonNull Executor executor) {
+        Uri uri = request.getUri();
         Bitmap bitmap;
+        boolean failed = false;
         Runnable loader = null;
         synchronized (this) { // TODO(b/123708613) other lock
-            bitmap = mBitmapCache.get(uri);
-            if (bitmap == null) {
-                List<Map.Entry<Executor, Callback>> callbacks = mLoadCallbacks.get(uri);
+            ImageRequest key = getCacheKey(request);
+            bitmap = mBitmapCache.get(key);
+            if (bitmap == null && mNegativeCache.contains(request)) {
+                failed = true;
+            } else if (bitmap == null) {
+                List<Map.Entry<Executor, Callback>> callbacks = mLoadCallbacks.get(request);
                 if (callbacks == null) {
                     callbacks = new LinkedList<>();
-                    mLoadCallbacks.put(uri, callbacks);
-                    loader = new ImageLoaderTask(uri);
+                    mLoadCallbacks.put(request, callbacks);
+                    mPrefetchQueue.remove(request);
+                    mActiveLoads++;
+                    loader = new ImageLoaderTask(request, findSourceBitmap(key),
+                            Http.PRIORITY_HIGH);
                 }
                 callbacks.add(new SimpleEntry<>(executor, callback));
             }
         }
-        if (bitmap != null) {
+        if (bitmap != null || failed) {
             executor.execute(() -> callback.onImageLoaded(uri, bitmap));
         } else if (loader != null) {
             mExecutor.execute(loader);
         }
     }
 
+    public void prefetchImage(@NonNull Uri uri) {
+        prefetchImage(new ImageRequest.Builder(uri).build());
+    }
+
+    public void prefetchImage(@NonNull ImageRequest request) {
+        synchronized (this) { // TODO(b/123708613) other lock
+            if (mBitmapCache.contains(getCacheKey(request)) || mNegativeCache.contains(request)
+                    || mLoadCallbacks.containsKey(request) || mPrefetchQueue.contains(request)) {
+                return;
+            }
+            mPrefetchQueue.add(request);
+        }
+        schedulePrefetches();
+    }
+
+    public void cancelPrefetch(@NonNull Uri uri) {
+        cancelPrefetch(new ImageRequest.Builder(uri).build());
+    }
+
+    public void cancelPrefetch(@NonNull ImageRequest request) {
+        synchronized (this) { // TODO(b/123708613) other lock
+            if (mPrefetchQueue.remove(request)) {
+                Metrics.increment("image.prefetch.cancelled");
+            }
+        }
+    }
+
+    public boolean isImageCached(@NonNull Uri uri) {
+        return isImageCached(new ImageRequest.Builder(uri).build());
+    }
+
+    public boolean isImageCached(@NonNull ImageRequest request) {
+        synchronized (this) { // TODO(b/123708613) other lock
+            return mBitmapCache.contains(getCacheKey(request));
+        }
+    }
+
+    // Takes a ComponentCallbacks2 trim level.
+    public void trimMemory(int level) {
+        synchronized (this) { // TODO(b/123708613) other lock
+            if (mBitmapCache.trim(level)) {
+                mNegativeCache.clear();
+            }
+        }
+    }
+
+    // Returns a tiny version of an image decoded before, if any. It never does any I/O.
+    public @Nullable Bitmap getPreview(@NonNull Uri uri) {
+        byte[] preview = mInfoStore.getPreview(uri);
+        return preview == null ? null : TinyPreview.decode(preview);
+    }
+
+    // Returns a 2x2 collage of the first of the images, in a stable order, or the first image if
+    // there are too few for a collage. The collage is built in the background the first time it
+    // is loaded and kept on disk until its members change.
+    public @Nullable Uri getMosaicUri(@NonNull Collection<Uri> uris) {
+        if (uris.isEmpty()) {
+            return null;
+        }
+        List<Uri> members = new ArrayList<>(uris);
+        Collections.sort(members);
+        if (members.size() < MosaicStore.MEMBER_COUNT) {
+            return members.get(0);
+        }
+        return mMosaicStore.register(members.subList(0, MosaicStore.MEMBER_COUNT));
+    }
+
+    // Returns the colors of an image decoded before, if any. It never does any I/O.
+    public @Nullable Palette getPalette(@NonNull Uri uri) {
+        byte[] palette = mInfoStore.getPalette(uri);
+        return palette == null ? null : Palette.decode(palette);
+    }
+
+    public void flush() {
+        mExecutor.execute(mInfoStore::save);
+        mExecutor.execute(mThumbnailAtlas::save);
+    }
+
     public @Orientation int getOrientation(@NonNull Uri uri) {
         return mOrientationCache.get(uri);
     }
 
+    // Identical images behind different uris share one bitmap once their digest is known.
+    private @NonNull ImageRequest getCacheKey(@NonNull ImageRequest request) {
+        byte[] digest = mInfoStore.getDigest(request.getUri());
+        return digest == null ? request : request.withContentDigest(digest);
+    }
+
+    // Returns a cached bitmap the requested one can be made from without any I/O, if any: the
+    // same image untransformed, or at a larger size to scale down from.
+    private @Nullable Bitmap findSourceBitmap(@NonNull ImageRequest key) {
+        ImageRequest base = key.withoutTransformations();
+        if (key.hasTransformations() && mBitmapCache.contains(base)) {
+            return mBitmapCache.get(base);
+        }
+        if (!key.hasSize()) {
+            return null;
+        }
+        for (int size = key.getSize() << 1; size <= ImageRequest.MAX_SIZE_BUCKET; size <<= 1) {
+            ImageRequest larger = base.withSize(size);
+            if (mBitmapCache.contains(larger)) {
+                return mBitmapCache.get(larger);
+            }
+        }
+        ImageRequest original = base.withSize(ImageRequest.ORIGINAL_SIZE);
+        return mBitmapCache.contains(original) ? mBitmapCache.get(original) : null;
+    }
+
+    private static @NonNull MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void schedulePrefetches() {
+        List<Runnable> loaders = new ArrayList<>();
+        synchronized (this) { // TODO(b/123708613) other lock
+            while (mActiveLoads < PREFETCH_MAX_ACTIVE_LOADS && !mPrefetchQueue.isEmpty()) {
+                ImageRequest request = mPrefetchQueue.poll();
+                ImageRequest key = getCacheKey(request);
+                if (mBitmapCache.contains(key)
+                        || mNegativeCache.contains(request)
+                        || mLoadCallbacks.containsKey(request)) {
+                    continue;
+                }
+                // Loads requested while the prefetch is running will attach to this entry.
+                mLoadCallbacks.put(request, new LinkedList<>());
+                mActiveLoads++;
+                loaders.add(new ImageLoaderTask(request, findSourceBitmap(key),
+                        Http.PRIORITY_LOW));
+            }
+        }
+        for (Runnable loader : loaders) {
+            Metrics.increment("image.prefetch.started");
+            mExecutor.execute(loader);
+        }
+    }
+
     private class ImageLoaderTask implements Runnable {
+        private final ImageRequest mRequest;
         private final Uri mUri;
+        // The same image untransformed or larger, used instead of loading anything.
+        private final Bitmap mSource;
+        // Images someone is waiting for go ahead of prefetches.
+        private final int mPriority;
+        private byte[] mDigest;
+        // Of a local image, see stat()
+        private long mSize = -1;
+        private long mModified = -1;
+        private int mAttempt;
+        // Downloaded without holding a thread of the executor, see download()
+        private byte[] mData;
+        private boolean mNeedsData;
+        // The loaded image before any transformation, which may change its aspect ratio
+        private Bitmap mBase;
+        // Remote tiles of a mosaic still to download, and those downloaded, null if that failed
+        private List<Uri> mTileDownloads;
+        private Map<Uri, byte[]> mTileData;
 
-        private ImageLoaderTask(@NonNull Uri uri) {
-            mUri = uri;
+        private ImageLoaderTask(@NonNull ImageRequest request, @Nullable Bitmap source,
+                int priority) {
+            mRequest = request;
+            mUri = request.getUri();
+            mSource = source;
+            mPriority = priority;
+            mDigest = mInfoStore.getDigest(mUri);
         }
 
         @Override
         public void run() {
+            Bitmap bitmap = null;
+            // A load that is downloading or retried keeps its callbacks waiting
+            boolean waiting = false;
             try {
-                byte[] data;
-                if (Scheme.isFile(mUri)) {
-                    data = IoUtils.readFromFile(new File(mUri.getPath()));
-                } else if (Scheme.isHttp(mUri) || Scheme.isHttps(mUri)) {
-                    data = Http.get(mUri.toString());
-                } else {
-                    throw new IllegalArgumentException("Unknown scheme '" + mUri.getScheme() + "'");
-                }
-                Bitmap bitmap = decodeBitmapFromByteArray(data);
-                Set<Map.Entry<Executor, Callback>> callbacks;
-                List<Map.Entry<Executor, Callback>> loadCallbacks;
-                synchronized (ImageLoader.this) { // TODO(b/123708613) proper lock
-                    if (bitmap != null) {
-                        mBitmapCache.put(mUri, bitmap);
-                        mOrientationCache.put(mUri, bitmap);
+                bitmap = load();
+                if (mNeedsData) {
+                    download();
+                    waiting = true;
+                }
+            } catch (IOException e) {
+                waiting = scheduleRetry(e);
+                if (!waiting) {
+                    Clog.e(TAG, "Failed to load image " + mUri, e);
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // Such as an unknown scheme, or a content uri we may not read
+                Clog.e(TAG, "Failed to load image " + mUri, e);
+            } finally {
+                if (!waiting) {
+                    finish(bitmap);
+                }
+            }
+        }
+
+        // Waits for the host and the body without holding a thread of the executor, which is
+        // shared with local loads. The load then runs again on the executor, with the data.
+        private void download() {
+            if (mTileDownloads != null) {
+                downloadTiles();
+                return;
+            }
+            SettableFuture<byte[]> data =
+                    Http.getAsync(mUri.toString(), Http.Headers.NONE, mPriority);
+            data.addCallback(new SettableFuture.Callback<byte[]>() {
+                @Override
+                public void onSuccess(@NonNull byte[] data) {
+                    mData = data;
+                    run();
+                }
+
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    if (e instanceof IOException && scheduleRetry((IOException) e)) {
+                        return;
                     }
-                    callbacks = new ArraySet<>(mCallbacks);
-                    loadCallbacks = mLoadCallbacks.remove(mUri);
+                    Clog.e(TAG, "Failed to load image " + mUri, e);
+                    finish(null);
                 }
-                for (Map.Entry<Executor, Callback> callback : callbacks) {
-                    callback.getKey().execute(() ->
-                            callback.getValue().onImageLoaded(mUri, bitmap));
+            }, mExecutor);
+        }
+
+        // Like download(), for all the remote tiles of a mosaic at once. The mosaic is then
+        // composed again on the executor, with whatever tiles could be had.
+        private void downloadTiles() {
+            List<Uri> uris = mTileDownloads;
+            mTileDownloads = null;
+            if (mTileData == null) {
+                mTileData = new ArrayMap<>();
+            }
+            AtomicInteger remaining = new AtomicInteger(uris.size());
+            for (Uri uri : uris) {
+                SettableFuture<byte[]> data =
+                        Http.getAsync(uri.toString(), Http.Headers.NONE, mPriority);
+                data.addCallback(new SettableFuture.Callback<byte[]>() {
+                    @Override
+                    public void onSuccess(@NonNull byte[] data) {
+                        onTileDownloaded(uri, data, remaining);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        Clog.w(TAG, "Failed to load mosaic tile " + uri, e);
+                        onTileDownloaded(uri, null, remaining);
+                    }
+                }, mExecutor);
+            }
+        }
+
+        private void onTileDownloaded(@NonNull Uri uri, @Nullable byte[] data,
+                @NonNull AtomicInteger remaining) {
+            synchronized (mTileData) {
+                mTileData.put(uri, data);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                run();
+            }
+        }
+
+        // Only downloads are worth retrying.
+        private boolean scheduleRetry(@NonNull IOException e) {
+            if (!Scheme.isHttp(mUri) && !Scheme.isHttps(mUri)) {
+                return false;
+            }
+            long delay = Http.getRetryDelay(e);
+            if (delay < 0 || !mRetryScheduler.schedule(this, mAttempt++, delay)) {
+                return false;
+            }
+            Clog.w(TAG, "Failed to load image " + mUri + ", retrying", e);
+            return true;
+        }
+
+        private @Nullable Bitmap load() throws IOException {
+            mNeedsData = false;
+            if (mDigest != null && (Scheme.isContent(mUri) || Scheme.isFile(mUri))) {
+                stat();
+                if (!mInfoStore.isDigestCurrent(mUri, mSize, mModified)) {
+                    // The file changed, and with it the bitmaps cached under its digest
+                    mDigest = null;
+                    mInfoStore.removeDigest(mUri);
+                    Metrics.increment("image.digest.stale");
+                }
+            }
+            // Transformed bitmaps come from the disk cache, unless the source is at hand
+            if (mSource == null && mRequest.hasTransformations()) {
+                Bitmap bitmap = mDiskCache.get(getKey().getDiskKey());
+                if (bitmap != null) {
+                    Metrics.increment("image.disk_cache.hit");
+                    return bitmap;
                 }
+            }
+            Bitmap base;
+            if (mSource != null && mRequest.hasSize()) {
+                base = scaleBitmap(mSource);
+                Metrics.increment("image.downscale.hit");
+            } else if (mSource != null) {
+                base = mSource;
+            } else {
+                base = loadBitmap();
+            }
+            mBase = base;
+            return base == null ? null : transformBitmap(base);
+        }
+
+        // Every load that is not retried ends here, whatever went wrong.
+        private void finish(@Nullable Bitmap bitmap) {
+            Set<Map.Entry<Executor, Callback>> callbacks;
+            List<Map.Entry<Executor, Callback>> loadCallbacks;
+            synchronized (ImageLoader.this) { // TODO(b/123708613) proper lock
+                loadCallbacks = mLoadCallbacks.remove(mRequest);
+                mActiveLoads--;
+                if (bitmap != null) {
+                    mBitmapCache.put(getKey(), bitmap);
+                    if (mBase != null) {
+                        mOrientationCache.put(mUri, mBase);
+                    }
+                    mNegativeCache.remove(mRequest);
+                } else {
+                    mNegativeCache.put(mRequest);
+                }
+                callbacks = new ArraySet<>(mCallbacks);
+            }
+            final Bitmap result = bitmap;
+            for (Map.Entry<Executor, Callback> callback : callbacks) {
+                callback.getKey().execute(() ->
+                        callback.getValue().onImageLoaded(mUri, result));
+            }
+            if (loadCallbacks != null) {
                 for (Map.Entry<Executor, Callback> callback : loadCallbacks) {
                     callback.getKey().execute(() ->
-                            callback.getValue().onImageLoaded(mUri, bitmap));
+                            callback.getValue().onImageLoaded(mUri, result));
                 }
-            } catch (IOException | OutOfMemoryError e) {
-                Clog.e(TAG, "Failed to load image " + mUri, e);
-                // TODO(b/123708676) remove from mLoadCallbacks
+            }
+            schedulePrefetches();
+        }
+
+        private @NonNull ImageRequest getKey() {
+            return mDigest == null ? mRequest : mRequest.withContentDigest(mDigest);
+        }
+
+        private @NonNull Bitmap transformBitmap(@NonNull Bitmap base) {
+            if (!mRequest.hasTransformations()) {
+                return base;
+            }
+            Bitmap bitmap = base;
+            for (Transformation transformation : mRequest.getTransformations()) {
+                bitmap = transformation.transform(bitmap);
+            }
+            String diskKey = getKey().getDiskKey();
+            if (!mDiskCache.contains(diskKey)) {
+                mDiskCache.put(diskKey, bitmap);
+            }
+            return bitmap;
+        }
+
+        private @Nullable Bitmap loadBitmap() throws IOException {
+            // The atlas only holds small RGB 565 tiles
+            boolean useAtlas = mRequest.hasMediaId() && (mRequest.getConfig() == null
+                    || mRequest.getConfig() == Bitmap.Config.RGB_565)
+                    && (!mRequest.hasSize() || mRequest.getSize() <= ThumbnailAtlas.TILE_SIZE);
+            Bitmap bitmap = null;
+            if (useAtlas) {
+                bitmap = mThumbnailAtlas.get(mRequest.getMediaId(), mUri);
+            }
+            if (bitmap == null) {
+                bitmap = decodeBitmap();
+                if (mNeedsData) {
+                    return null;
+                } else if (bitmap == null) {
+                    Clog.w(TAG, "Failed to decode image " + mUri);
+                } else if (useAtlas) {
+                    mThumbnailAtlas.put(mRequest.getMediaId(), mUri, bitmap);
+                }
+            }
+            if (bitmap != null && mInfoStore.getPreview(mUri) == null) {
+                mInfoStore.putPreview(mUri, TinyPreview.encode(bitmap));
+            }
+            if (bitmap != null && mInfoStore.getPalette(mUri) == null) {
+                mInfoStore.putPalette(mUri, Palette.generate(bitmap).encode());
+            }
+            return bitmap;
+        }
+
+        private @NonNull Bitmap scaleBitmap(@NonNull Bitmap source) {
+            float scale = (float) mRequest.getSize()
+                    / Math.max(source.getWidth(), source.getHeight());
+            if (scale >= 1f) {
+                return source;
+            }
+            int width = Math.max(1, Math.round(source.getWidth() * scale));
+            int height = Math.max(1, Math.round(source.getHeight() * scale));
+            return Bitmap.createScaledBitmap(source, width, height, true);
+        }
+
+        private @Nullable Bitmap decodeBitmap() throws IOException {
+            if (Scheme.isContent(mUri) || Scheme.isFile(mUri)) {
+                return decodeBitmapFromUri(mUri);
+            } else if (Scheme.isHttp(mUri) || Scheme.isHttps(mUri)) {
+                mNeedsData = mData == null;
+                if (mNeedsData) {
+                    return null;
+                }
+                byte[] data = mData;
+                mData = null;
+                if (mDigest == null) {
+                    MessageDigest digest = newDigest();
+                    digest.update(data);
+                    Bitmap shared = setDigest(digest.digest());
+                    if (shared != null) {
+                        return shared;
+                    }
+                }
+                return decodeBitmapFromByteArray(data);
+            } else if (Scheme.isMosaic(mUri)) {
+                return loadMosaic();
+            } else {
+                throw new IllegalArgumentException("Unknown scheme '" + mUri.getScheme() + "'");
+            }
+        }
+
+        private @Nullable Bitmap loadMosaic() throws IOException {
+            String diskKey = mUri.toString();
+            Bitmap bitmap = mDiskCache.get(diskKey);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            List<Uri> members = mMosaicStore.getMembers(mUri);
+            if (members == null) {
+                throw new FileNotFoundException("Unknown mosaic " + mUri);
+            }
+            List<Bitmap> tiles = new ArrayList<>();
+            List<Uri> downloads = new ArrayList<>();
+            for (Uri member : members) {
+                tiles.add(loadMosaicTile(member, downloads));
+            }
+            if (!downloads.isEmpty()) {
+                mTileDownloads = downloads;
+                mNeedsData = true;
+                return null;
+            }
+            bitmap = MosaicStore.compose(tiles);
+            if (bitmap != null) {
+                mDiskCache.put(diskKey, bitmap);
+                Metrics.increment("image.mosaic.built");
+            }
+            return bitmap;
+        }
+
+        // Adds the tile to downloads instead if it is remote and not downloaded yet.
+        private @Nullable Bitmap loadMosaicTile(@NonNull Uri uri, @NonNull List<Uri> downloads) {
+            ImageRequest request = new ImageRequest.Builder(uri)
+                    .setTargetSize(MosaicStore.TILE_SIZE)
+                    .build();
+            synchronized (ImageLoader.this) { // TODO(b/123708613) proper lock
+                ImageRequest key = getCacheKey(request);
+                Bitmap bitmap = mBitmapCache.get(key);
+                if (bitmap == null) {
+                    bitmap = findSourceBitmap(key);
+                }
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+            try {
+                ImageLoaderTask task = new ImageLoaderTask(request, null, mPriority);
+                Bitmap bitmap = task.loadBitmap();
+                if (task.mNeedsData) {
+                    if (mTileData == null || !mTileData.containsKey(uri)) {
+                        downloads.add(uri);
+                        return null;
+                    }
+                    task.mData = mTileData.get(uri);
+                    bitmap = task.mData == null ? null : task.loadBitmap();
+                }
+                return bitmap;
+            } catch (IOException | RuntimeException e) {
+                Clog.w(TAG, "Failed to load mosaic tile " + uri, e);
+                return null;
+            }
+        }
+
+        // Remembers the digest of the encoded image and returns the bitmap already decoded from
+        // the same bytes behind another uri, if any.
+        private @Nullable Bitmap setDigest(@NonNull byte[] digest) {
+            mDigest = digest;
+            mInfoStore.putDigest(mUri, digest, mSize, mModified);
+            Bitmap bitmap;
+            synchronized (ImageLoader.this) { // TODO(b/123708613) proper lock
+                bitmap = mBitmapCache.get(
+                        mRequest.withoutTransformations().withContentDigest(digest));
+            }
+            if (bitmap != null) {
+                Metrics.increment("image.digest.shared");
+            }
+            return bitmap;
+        }
+
+        // Reads the size and modification time of the local image, which tell whether it has
+        // changed since its digest was taken. Either is left -1 if the provider does not say.
+        private void stat() throws IOException {
+            if (Scheme.isFile(mUri)) {
+                File file = new File(mUri.getPath());
+                mSize = file.length();
+                mModified = file.lastModified();
+                return;
+            }
+            Cursor cursor = null;
+            try {
+                cursor = mContentResolver.query(mUri, STAT_PROJECTION, null, null, null);
+            } catch (RuntimeException e) {
+                // Such as a provider without these columns
+            }
+            if (cursor != null) {
+                try {
+                    if (cursor.moveToFirst()) {
+                        mSize = cursor.isNull(0) ? -1 : cursor.getLong(0);
+                        mModified = cursor.isNull(1) ? -1 : cursor.getLong(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            if (mSize < 0) {
+                ParcelFileDescriptor pfd = mContentResolver.openFileDescriptor(mUri, "r");
+                if (pfd == null) {
+                    throw new FileNotFoundException("Failed to open " + mUri);
+                }
+                mSize = pfd.getStatSize();
+                IoUtils.close(pfd);
+            }
+        }
+
+        private @Nullable Bitmap decodeBitmapFromUri(@NonNull Uri uri) throws IOException {
+            ParcelFileDescriptor pfd = mContentResolver.openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                throw new FileNotFoundException("Failed to open " + uri);
+            }
+            try {
+                // Decoding from the descriptor leaves its position untouched, so it can be reused
+                // for the full decode after reading the header.
+                FileDescriptor fd = pfd.getFileDescriptor();
+                BitmapFactory.Options options = new BitmapFactory.Options();
+
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFileDescriptor(fd, null, options);
+
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = getSampleSize(options);
+                options.inPreferredConfig = getConfig(options);
+                if (mDigest != null) {
+                    return BitmapFactory.decodeFileDescriptor(fd, null, options);
+                }
+
+                // Digested while decoding, rather than read once more for it
+                if (mSize < 0) {
+                    stat();
+                }
+                MessageDigest digest = newDigest();
+                InputStream inputStream = new DigestInputStream(new FileInputStream(fd), digest);
+                Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+                byte[] buffer = new byte[16 * 1024];
+                while (inputStream.read(buffer) != -1) {
+                    // The decoder may stop short of the end of the file
+                }
+                Bitmap shared = setDigest(digest.digest());
+                return shared != null ? shared : bitmap;
+            } finally {
+                IoUtils.close(pfd);
             }
         }
 
@@ -161,8 +760,35 @@ public class ImageLoader {
             BitmapFactory.decodeByteArray(data, 0, data.length, options);
 
             options.inJustDecodeBounds = false;
-            options.inSampleSize = 1; // TODO(b/123708796) add scaling
+            options.inSampleSize = getSampleSize(options);
+            options.inPreferredConfig = getConfig(options);
             return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         }
+
+        // Picks the largest subsampling that keeps the longest side at least the requested size.
+        private int getSampleSize(@NonNull BitmapFactory.Options bounds) {
+            if (!mRequest.hasSize()) {
+                return 1;
+            }
+            int side = Math.max(bounds.outWidth, bounds.outHeight);
+            int sampleSize = 1;
+            while (side / (sampleSize * 2) >= mRequest.getSize()) {
+                sampleSize *= 2;
+            }
+            return sampleSize;
+        }
+
+        private @NonNull Bitmap.Config getConfig(@NonNull BitmapFactory.Options bounds) {
+            Bitmap.Config config = mRequest.getConfig();
+            if (config != null) {
+                return config;
+            }
+            // JPEGs are always opaque, and small ones show little banding in RGB 565
+            if ("image/jpeg".equals(bounds.outMimeType)
+                    && (long) bounds.outWidth * bounds.outHeight <= AUTO_RGB_565_MAX_PIXELS) {
+                return Bitmap.Config.RGB_565;
+            }
+            return Bitmap.Config.ARGB_8888;
+        }
     }
 }
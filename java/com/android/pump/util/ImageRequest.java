@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Everything that affects the decoded bitmap is part of equals(), so requests double as cache keys.
+@AnyThread
+public final class ImageRequest {
+    private static final long NO_MEDIA_ID = -1;
+    // Target sizes are rounded up to a power of two, so that close sizes share one bitmap.
+    private static final int MIN_SIZE_BUCKET = 64;
+    static final int MAX_SIZE_BUCKET = 4096;
+    static final int ORIGINAL_SIZE = 0;
+
+    private final Uri mUri;
+    private final long mMediaId;
+    private final Bitmap.Config mConfig;
+    private final int mSize;
+    private final List<Transformation> mTransformations;
+    private final String mTransformationKey;
+
+    private ImageRequest(Uri uri, long mediaId, Bitmap.Config config, int size,
+            List<Transformation> transformations) {
+        mUri = uri;
+        mMediaId = mediaId;
+        mConfig = config;
+        mSize = size;
+        mTransformations = transformations;
+        StringBuilder transformationKey = new StringBuilder();
+        for (Transformation transformation : transformations) {
+            transformationKey.append('/').append(transformation.getKey());
+        }
+        mTransformationKey = transformationKey.toString();
+    }
+
+    public @NonNull Uri getUri() {
+        return mUri;
+    }
+
+    public boolean hasMediaId() {
+        return mMediaId != NO_MEDIA_ID;
+    }
+
+    public long getMediaId() {
+        if (!hasMediaId()) {
+            throw new IllegalStateException();
+        }
+        return mMediaId;
+    }
+
+    // Returns null if the config is picked per image, see ImageLoader.
+    public @Nullable Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean hasSize() {
+        return mSize != ORIGINAL_SIZE;
+    }
+
+    // Returns the size bucket of the longest side of the bitmap.
+    public int getSize() {
+        if (!hasSize()) {
+            throw new IllegalStateException();
+        }
+        return mSize;
+    }
+
+    public boolean hasTransformations() {
+        return !mTransformations.isEmpty();
+    }
+
+    // Returns the transformations in the order they are applied.
+    public @NonNull List<Transformation> getTransformations() {
+        return mTransformations;
+    }
+
+    @NonNull ImageRequest withSize(int size) {
+        return new ImageRequest(mUri, mMediaId, mConfig, size, mTransformations);
+    }
+
+    @NonNull ImageRequest withoutTransformations() {
+        return new ImageRequest(mUri, mMediaId, mConfig, mSize,
+                Collections.<Transformation>emptyList());
+    }
+
+    // A stable string for everything in equals(), for naming persisted results.
+    @NonNull String getDiskKey() {
+        return mUri + "|" + mConfig + "|" + mSize + "|" + mTransformationKey;
+    }
+
+    // Returns the same request for content with the given digest, whatever uri it came from.
+    @NonNull ImageRequest withContentDigest(@NonNull byte[] digest) {
+        return new ImageRequest(Uri.fromParts("digest", toHex(digest), null), mMediaId, mConfig,
+                mSize, mTransformations);
+    }
+
+    static @NonNull String toHex(@NonNull byte[] data) {
+        StringBuilder hex = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ImageRequest)) {
+            return false;
+        }
+        // The media id only changes where the pixels are read from
+        ImageRequest other = (ImageRequest) obj;
+        return mUri.equals(other.mUri) && mConfig == other.mConfig && mSize == other.mSize
+                && mTransformationKey.equals(other.mTransformationKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mUri, mConfig, mSize, mTransformationKey);
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return mUri + (mConfig == null ? "" : " (" + mConfig + ")")
+                + (mSize == ORIGINAL_SIZE ? "" : " @" + mSize) + mTransformationKey;
+    }
+
+    public static final class Builder {
+        private final Uri mUri;
+        private long mMediaId = NO_MEDIA_ID;
+        private Bitmap.Config mConfig;
+        private int mSize = ORIGINAL_SIZE;
+        private final List<Transformation> mTransformations = new ArrayList<>();
+
+        public Builder(@NonNull Uri uri) {
+            mUri = uri;
+        }
+
+        public @NonNull Builder setMediaId(long mediaId) {
+            if (mediaId < 0) {
+                throw new IllegalArgumentException("Invalid media id " + mediaId);
+            }
+            mMediaId = mediaId;
+            return this;
+        }
+
+        public @NonNull Builder setConfig(@Nullable Bitmap.Config config) {
+            mConfig = config;
+            return this;
+        }
+
+        // The longest side, in pixels, the image is shown at. Zero, the default, or anything
+        // too large to bucket keeps the original size.
+        public @NonNull Builder setTargetSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Invalid size " + size);
+            }
+            if (size == 0 || size > MAX_SIZE_BUCKET) {
+                mSize = ORIGINAL_SIZE;
+            } else {
+                mSize = MIN_SIZE_BUCKET;
+                while (mSize < size) {
+                    mSize <<= 1;
+                }
+            }
+            return this;
+        }
+
+        // Transformations are applied in the order they are added, after scaling.
+        public @NonNull Builder addTransformation(@NonNull Transformation transformation) {
+            mTransformations.add(transformation);
+            return this;
+        }
+
+        public @NonNull ImageRequest build() {
+            return new ImageRequest(mUri, mMediaId, mConfig, mSize,
+                    Collections.unmodifiableList(new ArrayList<>(mTransformations)));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+@AnyThread
+public final class Metrics {
+    private static final String TAG = Clog.tag(Metrics.class);
+
+    private static final Map<String, Long> COUNTERS = new TreeMap<>();
+
+    private Metrics() { }
+
+    public static void increment(@NonNull String name) {
+        add(name, 1);
+    }
+
+    public static void add(@NonNull String name, long delta) {
+        synchronized (COUNTERS) {
+            Long value = COUNTERS.get(name);
+            COUNTERS.put(name, value == null ? delta : value + delta);
+        }
+    }
+
+    // For a gauge, such as a state, rather than a counter.
+    public static void set(@NonNull String name, long value) {
+        synchronized (COUNTERS) {
+            COUNTERS.put(name, value);
+        }
+    }
+
+    public static long get(@NonNull String name) {
+        synchronized (COUNTERS) {
+            Long value = COUNTERS.get(name);
+            return value == null ? 0 : value;
+        }
+    }
+
+    public static @NonNull Map<String, Long> snapshot() {
+        synchronized (COUNTERS) {
+            return new TreeMap<>(COUNTERS);
+        }
+    }
+
+    public static void dump() {
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            Clog.i(TAG, entry.getKey() + " = " + entry.getValue());
+        }
+    }
+}
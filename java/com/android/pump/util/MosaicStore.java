@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.ArrayMap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// 2x2 collages of images. A collage is named after a hash of its members, so its uri, and the
+// files cached for it, only change when the members do.
+@AnyThread
+class MosaicStore {
+    static final int MEMBER_COUNT = 4;
+    static final int TILE_SIZE = 256;
+
+    private final Map<Uri, List<Uri>> mMembers = new ArrayMap<>();
+
+    synchronized @NonNull Uri register(@NonNull List<Uri> members) {
+        if (members.size() != MEMBER_COUNT) {
+            throw new IllegalArgumentException("Expected " + MEMBER_COUNT + " members, got "
+                    + members.size());
+        }
+        StringBuilder key = new StringBuilder();
+        for (Uri member : members) {
+            key.append(member).append('\n');
+        }
+        Uri uri = Scheme.mosaic(getHash(key.toString()));
+        mMembers.put(uri, new ArrayList<>(members));
+        return uri;
+    }
+
+    synchronized @Nullable List<Uri> getMembers(@NonNull Uri uri) {
+        return mMembers.get(uri);
+    }
+
+    // Draws the members center-cropped into the quadrants, leaving the ones that failed to load
+    // empty. Returns null if none of them loaded.
+    @WorkerThread
+    static @Nullable Bitmap compose(@NonNull List<Bitmap> tiles) {
+        boolean empty = true;
+        for (Bitmap tile : tiles) {
+            empty &= tile == null;
+        }
+        if (empty) {
+            return null;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE * 2, TILE_SIZE * 2, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        for (int i = 0; i < tiles.size(); ++i) {
+            Bitmap tile = tiles.get(i);
+            if (tile == null) {
+                continue;
+            }
+            int side = Math.min(tile.getWidth(), tile.getHeight());
+            int left = (tile.getWidth() - side) / 2;
+            int top = (tile.getHeight() - side) / 2;
+            Rect src = new Rect(left, top, left + side, top + side);
+            int x = i % 2 * TILE_SIZE;
+            int y = i / 2 * TILE_SIZE;
+            canvas.drawBitmap(tile, src, new Rect(x, y, x + TILE_SIZE, y + TILE_SIZE), paint);
+        }
+        return bitmap;
+    }
+
+    private static @NonNull String getHash(@NonNull String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return ImageRequest.toHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
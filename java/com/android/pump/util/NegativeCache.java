@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
+
+import java.util.concurrent.TimeUnit;
+
+// Failed requests, keyed like the bitmap cache, as a failure of one config, size or
+// transformation says nothing about the others.
+@AnyThread
+class NegativeCache {
+    private static final int CACHE_SIZE = 256;
+
+    private static final long MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Failures older than this are forgotten, resetting the backoff for the uri.
+    private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final LruCache<ImageRequest, Failure> mFailures = new LruCache<>(CACHE_SIZE);
+
+    void put(@NonNull ImageRequest key) {
+        long now = SystemClock.elapsedRealtime();
+        Failure failure = mFailures.get(key);
+        int count = failure == null || failure.isExpired(now) ? 1 : failure.mCount + 1;
+        long backoff = Math.min(MIN_BACKOFF_MILLIS << Math.min(count - 1, 20), MAX_BACKOFF_MILLIS);
+        mFailures.put(key, new Failure(count, now, now + backoff));
+    }
+
+    boolean contains(@NonNull ImageRequest key) {
+        Failure failure = mFailures.get(key);
+        if (failure == null) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (failure.isExpired(now)) {
+            mFailures.remove(key);
+            return false;
+        }
+        return now < failure.mRetryTime;
+    }
+
+    void remove(@NonNull ImageRequest key) {
+        mFailures.remove(key);
+    }
+
+    void clear() {
+        mFailures.evictAll();
+    }
+
+    private static class Failure {
+        private final int mCount;
+        private final long mFailureTime;
+        private final long mRetryTime;
+
+        private Failure(int count, long failureTime, long retryTime) {
+            mCount = count;
+            mFailureTime = failureTime;
+            mRetryTime = retryTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now - mFailureTime > TTL_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.graphics.ColorUtils;
+
+// The few most common colors of an image, most common first. Small enough to be kept for every
+// image, so that screens can be themed before the image itself is loaded.
+@AnyThread
+public final class Palette {
+    private static final int MAX_COLORS = 4;
+    private static final int SAMPLE_SIDE = 32;
+    // Colors closer than this, in RGB units, count as one.
+    private static final int MIN_DISTANCE = 48;
+    // How much of the dominant color shows through a background tint.
+    private static final float BACKGROUND_TINT_RATIO = 0.3f;
+
+    private final int[] mColors;
+
+    private Palette(@NonNull int[] colors) {
+        mColors = colors;
+    }
+
+    public int getColorCount() {
+        return mColors.length;
+    }
+
+    public @ColorInt int getColor(int index) {
+        return mColors[index];
+    }
+
+    public @ColorInt int getDominantColor(@ColorInt int defaultColor) {
+        return mColors.length == 0 ? defaultColor : mColors[0];
+    }
+
+    // Returns the background color tinted with the dominant color, dark enough to keep the text
+    // drawn on the background readable.
+    public @ColorInt int getBackgroundTint(@ColorInt int backgroundColor) {
+        if (mColors.length == 0) {
+            return backgroundColor;
+        }
+        return ColorUtils.blendARGB(backgroundColor, mColors[0], BACKGROUND_TINT_RATIO);
+    }
+
+    @WorkerThread
+    static @NonNull Palette generate(@NonNull Bitmap bitmap) {
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, SAMPLE_SIDE, SAMPLE_SIDE, true);
+        int[] pixels = new int[SAMPLE_SIDE * SAMPLE_SIDE];
+        scaled.getPixels(pixels, 0, SAMPLE_SIDE, 0, 0, SAMPLE_SIDE, SAMPLE_SIDE);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+
+        // Histogram of colors with 4 bits per channel
+        int[] counts = new int[4096];
+        int[] reds = new int[4096];
+        int[] greens = new int[4096];
+        int[] blues = new int[4096];
+        for (int pixel : pixels) {
+            if (Color.alpha(pixel) < 128) {
+                continue;
+            }
+            int red = Color.red(pixel);
+            int green = Color.green(pixel);
+            int blue = Color.blue(pixel);
+            int bin = (red >> 4) << 8 | (green >> 4) << 4 | (blue >> 4);
+            counts[bin]++;
+            reds[bin] += red;
+            greens[bin] += green;
+            blues[bin] += blue;
+        }
+
+        int[] colors = new int[MAX_COLORS];
+        int colorCount = 0;
+        while (colorCount < MAX_COLORS) {
+            int best = -1;
+            for (int bin = 0; bin < counts.length; ++bin) {
+                if (counts[bin] > 0 && (best < 0 || counts[bin] > counts[best])) {
+                    best = bin;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            int color = getAverage(best, counts, reds, greens, blues);
+            colors[colorCount++] = color;
+            // Drop the bins that are too close to the picked color to add anything
+            for (int bin = 0; bin < counts.length; ++bin) {
+                if (counts[bin] > 0 && getDistance(color,
+                        getAverage(bin, counts, reds, greens, blues)) < MIN_DISTANCE) {
+                    counts[bin] = 0;
+                }
+            }
+        }
+        int[] result = new int[colorCount];
+        System.arraycopy(colors, 0, result, 0, colorCount);
+        return new Palette(result);
+    }
+
+    @NonNull byte[] encode() {
+        byte[] data = new byte[mColors.length * 3];
+        for (int i = 0; i < mColors.length; ++i) {
+            data[i * 3] = (byte) Color.red(mColors[i]);
+            data[i * 3 + 1] = (byte) Color.green(mColors[i]);
+            data[i * 3 + 2] = (byte) Color.blue(mColors[i]);
+        }
+        return data;
+    }
+
+    static @Nullable Palette decode(@NonNull byte[] data) {
+        if (data.length % 3 != 0 || data.length > MAX_COLORS * 3) {
+            return null;
+        }
+        int[] colors = new int[data.length / 3];
+        for (int i = 0; i < colors.length; ++i) {
+            colors[i] = Color.rgb(data[i * 3] & 0xff, data[i * 3 + 1] & 0xff,
+                    data[i * 3 + 2] & 0xff);
+        }
+        return new Palette(colors);
+    }
+
+    private static int getAverage(int bin, int[] counts, int[] reds, int[] greens, int[] blues) {
+        int count = counts[bin];
+        return Color.rgb(reds[bin] / count, greens[bin] / count, blues[bin] / count);
+    }
+
+    private static int getDistance(int color1, int color2) {
+        int red = Color.red(color1) - Color.red(color2);
+        int green = Color.green(color1) - Color.green(color2);
+        int blue = Color.blue(color1) - Color.blue(color2);
+        return (int) Math.sqrt(red * red + green * green + blue * blue);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+// Rounds the corners of a bitmap, leaving them transparent. The radius is in bitmap pixels.
+@WorkerThread
+public final class RoundedCorners implements Transformation {
+    private final float mRadius;
+
+    public RoundedCorners(float radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Invalid radius " + radius);
+        }
+        mRadius = radius;
+    }
+
+    @Override
+    public @NonNull String getKey() {
+        return "rounded_corners(" + mRadius + ")";
+    }
+
+    @Override
+    public @NonNull Bitmap transform(@NonNull Bitmap source) {
+        if (mRadius == 0) {
+            return source;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        new Canvas(bitmap).drawRoundRect(new RectF(0, 0, width, height), mRadius, mRadius, paint);
+        return bitmap;
+    }
+}
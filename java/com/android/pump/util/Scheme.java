@@ -26,9 +26,15 @@ import androidx.annotation.NonNull;
 public final class Scheme {
     private Scheme() { }
 
+    private final static String CONTENT = ContentResolver.SCHEME_CONTENT;
     private final static String FILE = ContentResolver.SCHEME_FILE;
     private final static String HTTP = "http";
     private final static String HTTPS = "https";
+    private final static String MOSAIC = "mosaic";
+
+    public static boolean isContent(@NonNull Uri uri) {
+        return CONTENT.equals(uri.getScheme());
+    }
 
     public static boolean isFile(@NonNull Uri uri) {
         return FILE.equals(uri.getScheme());
@@ -41,4 +47,13 @@ public final class Scheme {
     public static boolean isHttps(@NonNull Uri uri) {
         return HTTPS.equals(uri.getScheme());
     }
+
+    // Collages built by the image loader, see ImageLoader.getMosaicUri().
+    public static boolean isMosaic(@NonNull Uri uri) {
+        return MOSAIC.equals(uri.getScheme());
+    }
+
+    static @NonNull Uri mosaic(@NonNull String hash) {
+        return Uri.fromParts(MOSAIC, hash, null);
+    }
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Pre-scaled RGB 565 thumbnails in fixed-size slots of a memory-mapped file, indexed by media id.
+// Reading a thumbnail copies its pixels out of the mapping, without opening or decoding a file.
+@WorkerThread
+class ThumbnailAtlas {
+    private static final String TAG = Clog.tag(ThumbnailAtlas.class);
+
+    private static final int VERSION = 1;
+    static final int TILE_SIZE = 256;
+    private static final int SLOT_BYTES = TILE_SIZE * TILE_SIZE * 2;
+    private static final int MAX_SLOTS = 512;
+    private static final int GROW_SLOTS = 32;
+
+    private final File mDataFile;
+    private final AtomicFile mIndexFile;
+    // Least recently used first
+    private final Map<Long, Tile> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final BitSet mUsedSlots = new BitSet();
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private int mSlotCount;
+    private boolean mOpened;
+    private boolean mDirty;
+
+    ThumbnailAtlas(@NonNull File dir) {
+        mDataFile = new File(dir, "thumbnails.atlas");
+        mIndexFile = new AtomicFile(new File(dir, "thumbnails.index"));
+    }
+
+    synchronized @Nullable Bitmap get(long mediaId, @NonNull Uri uri) {
+        if (!open()) {
+            return null;
+        }
+        Tile tile = mTiles.get(mediaId);
+        if (tile == null) {
+            return null;
+        }
+        if (tile.mUriHash != uri.hashCode()) {
+            // The thumbnail was regenerated elsewhere
+            removeTile(mediaId);
+            return null;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(tile.mWidth, tile.mHeight, Bitmap.Config.RGB_565);
+        bitmap.copyPixelsFromBuffer(getSlot(tile.mSlot, tile.mWidth, tile.mHeight));
+        return bitmap;
+    }
+
+    synchronized void put(long mediaId, @NonNull Uri uri, @NonNull Bitmap bitmap) {
+        if (!open()) {
+            return;
+        }
+        float scale = Math.min(1f, (float) TILE_SIZE
+                / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        Bitmap tileBitmap = scaled.getConfig() == Bitmap.Config.RGB_565 ? scaled
+                : scaled.copy(Bitmap.Config.RGB_565, false);
+        if (scaled != bitmap && scaled != tileBitmap) {
+            scaled.recycle();
+        }
+        if (tileBitmap == null) {
+            return;
+        }
+
+        Tile old = mTiles.remove(mediaId);
+        int slot = old != null ? old.mSlot : allocateSlot();
+        if (slot < 0) {
+            return;
+        }
+        tileBitmap.copyPixelsToBuffer(getSlot(slot, width, height));
+        if (tileBitmap != bitmap) {
+            tileBitmap.recycle();
+        }
+        mTiles.put(mediaId, new Tile(slot, width, height, uri.hashCode()));
+        mUsedSlots.set(slot);
+        mDirty = true;
+    }
+
+    synchronized void save() {
+        if (!mOpened || mBuffer == null) {
+            return;
+        }
+        compactIfNeeded();
+        if (!mDirty) {
+            return;
+        }
+        // The pixels must hit the disk before an index that points at them
+        mBuffer.force();
+
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = mIndexFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(VERSION);
+            out.writeInt(mSlotCount);
+            out.writeInt(mTiles.size());
+            for (Map.Entry<Long, Tile> entry : mTiles.entrySet()) {
+                Tile tile = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeInt(tile.mSlot);
+                out.writeShort(tile.mWidth);
+                out.writeShort(tile.mHeight);
+                out.writeInt(tile.mUriHash);
+            }
+            out.flush();
+            mIndexFile.finishWrite(fileOutputStream);
+            mDirty = false;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to save thumbnail index", e);
+            if (fileOutputStream != null) {
+                mIndexFile.failWrite(fileOutputStream);
+            }
+        }
+    }
+
+    private boolean open() {
+        if (mOpened) {
+            return mBuffer != null;
+        }
+        mOpened = true;
+
+        int slotCount = loadIndex();
+        try {
+            mFile = new RandomAccessFile(mDataFile, "rw");
+            if (slotCount < 0 || mFile.length() < (long) slotCount * SLOT_BYTES) {
+                // No usable index, rebuild the atlas from scratch as thumbnails are loaded
+                mTiles.clear();
+                mUsedSlots.clear();
+                slotCount = 0;
+            }
+            map(Math.max(slotCount, GROW_SLOTS));
+            return true;
+        } catch (IOException e) {
+            Clog.e(TAG, "Failed to open thumbnail atlas", e);
+            IoUtils.close(mFile);
+            mFile = null;
+            mBuffer = null;
+            return false;
+        }
+    }
+
+    private int loadIndex() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mIndexFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return -1;
+            }
+            int slotCount = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                long mediaId = in.readLong();
+                int slot = in.readInt();
+                int width = in.readUnsignedShort();
+                int height = in.readUnsignedShort();
+                int uriHash = in.readInt();
+                if (slot < 0 || slot >= slotCount || width > TILE_SIZE || height > TILE_SIZE
+                        || mUsedSlots.get(slot)) {
+                    return -1;
+                }
+                mTiles.put(mediaId, new Tile(slot, width, height, uriHash));
+                mUsedSlots.set(slot);
+            }
+            return slotCount;
+        } catch (FileNotFoundException e) {
+            return 0;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to load thumbnail index", e);
+            return -1;
+        } finally {
+            IoUtils.close(in);
+        }
+    }
+
+    private void map(int slotCount) throws IOException {
+        mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                (long) slotCount * SLOT_BYTES);
+        mSlotCount = slotCount;
+    }
+
+    private int allocateSlot() {
+        int slot = mUsedSlots.nextClearBit(0);
+        if (slot < mSlotCount) {
+            return slot;
+        }
+        if (mSlotCount < MAX_SLOTS) {
+            try {
+                map(Math.min(mSlotCount + GROW_SLOTS, MAX_SLOTS));
+                return slot;
+            } catch (IOException e) {
+                Clog.w(TAG, "Failed to grow thumbnail atlas", e);
+            }
+        }
+        // Full, reuse the slot of the least recently used thumbnail
+        Iterator<Tile> iterator = mTiles.values().iterator();
+        if (!iterator.hasNext()) {
+            return -1;
+        }
+        slot = iterator.next().mSlot;
+        iterator.remove();
+        return slot;
+    }
+
+    private void removeTile(long mediaId) {
+        Tile tile = mTiles.remove(mediaId);
+        if (tile != null) {
+            mUsedSlots.clear(tile.mSlot);
+            mDirty = true;
+        }
+    }
+
+    // Moves the tiles at the end of the file into the holes once more than a quarter of the slots
+    // are unused, then shrinks the file.
+    private void compactIfNeeded() {
+        int used = mTiles.size();
+        if (mSlotCount - used <= mSlotCount / 4 || mSlotCount <= GROW_SLOTS) {
+            return;
+        }
+        List<Tile> tiles = new ArrayList<>(mTiles.values());
+        for (Tile tile : tiles) {
+            if (tile.mSlot < used) {
+                continue;
+            }
+            int hole = mUsedSlots.nextClearBit(0);
+            ByteBuffer from = getSlot(tile.mSlot, TILE_SIZE, TILE_SIZE);
+            ByteBuffer to = getSlot(hole, TILE_SIZE, TILE_SIZE);
+            to.put(from);
+            mUsedSlots.clear(tile.mSlot);
+            mUsedSlots.set(hole);
+            tile.mSlot = hole;
+        }
+        try {
+            int slotCount = Math.max(used + GROW_SLOTS - used % GROW_SLOTS, GROW_SLOTS);
+            mBuffer.force();
+            mFile.setLength((long) slotCount * SLOT_BYTES);
+            map(slotCount);
+            mDirty = true;
+        } catch (IOException e) {
+            Clog.w(TAG, "Failed to shrink thumbnail atlas", e);
+        }
+    }
+
+    private @NonNull ByteBuffer getSlot(int slot, int width, int height) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(slot * SLOT_BYTES);
+        buffer.limit(slot * SLOT_BYTES + width * height * 2);
+        return buffer;
+    }
+
+    private static class Tile {
+        private int mSlot;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mUriHash;
+
+        private Tile(int slot, int width, int height, int uriHash) {
+            mSlot = slot;
+            mWidth = width;
+            mHeight = height;
+            mUriHash = uriHash;
+        }
+    }
+}
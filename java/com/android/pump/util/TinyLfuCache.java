@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// W-TinyLFU: new entries go to a small LRU window. Entries leaving the window are only admitted
+// to the main segmented LRU if they are requested more often than the entry they would evict.
+// A long scan therefore churns the window without flushing the popular entries.
+@AnyThread
+abstract class TinyLfuCache<K, V> {
+    // Larger than the usual 1%, as a handful of bitmaps already fill that.
+    private static final int WINDOW_PERCENT = 20;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int SKETCH_CAPACITY = 2048;
+
+    private final Map<K, Entry<V>> mWindow = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Entry<V>> mProbation = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Entry<V>> mProtected = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch mSketch = new FrequencySketch(SKETCH_CAPACITY);
+    private int mMaxSize;
+    private int mWindowMaxSize;
+    private int mProtectedMaxSize;
+    private int mWindowSize;
+    private int mProbationSize;
+    private int mProtectedSize;
+    private int mEvictionCount;
+    // Counts requests, to order entries across the segments by when they were last requested
+    private long mClock;
+
+    TinyLfuCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    protected abstract int sizeOf(@NonNull K key, @NonNull V value);
+
+    synchronized @Nullable V get(@NonNull K key) {
+        mSketch.increment(key);
+
+        Entry<V> entry = mWindow.get(key);
+        if (entry != null) {
+            entry.mLastRequest = ++mClock;
+            return entry.mValue;
+        }
+        entry = mProtected.get(key);
+        if (entry != null) {
+            entry.mLastRequest = ++mClock;
+            return entry.mValue;
+        }
+        entry = mProbation.remove(key);
+        if (entry != null) {
+            entry.mLastRequest = ++mClock;
+            // Requested again while on probation, promote
+            mProbationSize -= entry.mSize;
+            mProtected.put(key, entry);
+            mProtectedSize += entry.mSize;
+            demoteProtected();
+            return entry.mValue;
+        }
+        return null;
+    }
+
+    // Does not count as a request and leaves the eviction order untouched.
+    synchronized boolean contains(@NonNull K key) {
+        return mWindow.containsKey(key) || mProbation.containsKey(key)
+                || mProtected.containsKey(key);
+    }
+
+    synchronized void put(@NonNull K key, @NonNull V value) {
+        Entry<V> entry = new Entry<>(value, sizeOf(key, value));
+        entry.mLastRequest = ++mClock;
+        removeEntry(key);
+        mWindow.put(key, entry);
+        mWindowSize += entry.mSize;
+        evict();
+    }
+
+    synchronized void remove(@NonNull K key) {
+        removeEntry(key);
+    }
+
+    synchronized void evictAll() {
+        mEvictionCount += mWindow.size() + mProbation.size() + mProtected.size();
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowSize = 0;
+        mProbationSize = 0;
+        mProtectedSize = 0;
+    }
+
+    synchronized void resize(int maxSize) {
+        setMaxSize(maxSize);
+        demoteProtected();
+        evict();
+    }
+
+    // Evicts the least recently requested entries until at most maxSize remains, without
+    // changing the capacity of the cache. Trimming keeps what is in use, such as the bitmaps on
+    // screen, which are mostly in the window rather than in the protected segment.
+    synchronized void trimToSize(int maxSize) {
+        if (size() <= maxSize) {
+            return;
+        }
+        List<Map.Entry<K, Entry<V>>> entries = new ArrayList<>();
+        entries.addAll(mWindow.entrySet());
+        entries.addAll(mProbation.entrySet());
+        entries.addAll(mProtected.entrySet());
+        Collections.sort(entries, (a, b) ->
+                Long.compare(a.getValue().mLastRequest, b.getValue().mLastRequest));
+        for (Map.Entry<K, Entry<V>> entry : entries) {
+            if (size() <= maxSize) {
+                break;
+            }
+            removeEntry(entry.getKey());
+            mEvictionCount++;
+        }
+    }
+
+    synchronized int size() {
+        return mWindowSize + mProbationSize + mProtectedSize;
+    }
+
+    synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    private void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mWindowMaxSize = (int) ((long) maxSize * WINDOW_PERCENT / 100);
+        mProtectedMaxSize = (int) ((long) (maxSize - mWindowMaxSize) * PROTECTED_PERCENT / 100);
+    }
+
+    private void removeEntry(@NonNull K key) {
+        Entry<V> entry;
+        if ((entry = mWindow.remove(key)) != null) {
+            mWindowSize -= entry.mSize;
+        } else if ((entry = mProbation.remove(key)) != null) {
+            mProbationSize -= entry.mSize;
+        } else if ((entry = mProtected.remove(key)) != null) {
+            mProtectedSize -= entry.mSize;
+        }
+    }
+
+    private void demoteProtected() {
+        while (mProtectedSize > mProtectedMaxSize) {
+            Map.Entry<K, Entry<V>> eldest = mProtected.entrySet().iterator().next();
+            Entry<V> entry = eldest.getValue();
+            mProtected.remove(eldest.getKey());
+            mProtectedSize -= entry.mSize;
+            mProbation.put(eldest.getKey(), entry);
+            mProbationSize += entry.mSize;
+        }
+    }
+
+    private void evict() {
+        // Always keep the newest entry, even if it alone is larger than the window
+        while (mWindowSize > mWindowMaxSize && mWindow.size() > 1) {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = mWindow.entrySet().iterator();
+            Map.Entry<K, Entry<V>> candidate = iterator.next();
+            iterator.remove();
+            mWindowSize -= candidate.getValue().mSize;
+            if (admit(candidate.getKey(), candidate.getValue().mSize)) {
+                mProbation.put(candidate.getKey(), candidate.getValue());
+                mProbationSize += candidate.getValue().mSize;
+            } else {
+                mEvictionCount++;
+            }
+        }
+        trimToSize(mMaxSize);
+    }
+
+    // Makes room for the candidate in the main segment by evicting victims that are requested less
+    // often than it is, or returns false if the candidate itself should be evicted instead.
+    private boolean admit(@NonNull K candidate, int candidateSize) {
+        if (candidateSize > mMaxSize - mWindowMaxSize) {
+            return false;
+        }
+        int frequency = mSketch.frequency(candidate);
+        while (mWindowSize + mProbationSize + mProtectedSize + candidateSize > mMaxSize) {
+            Map<K, Entry<V>> segment = mProbation.isEmpty() ? mProtected : mProbation;
+            if (segment.isEmpty()) {
+                break;
+            }
+            K victim = segment.keySet().iterator().next();
+            if (frequency <= mSketch.frequency(victim)) {
+                return false;
+            }
+            evictEldest(segment);
+        }
+        return true;
+    }
+
+    private boolean evictEldest(@NonNull Map<K, Entry<V>> segment) {
+        Iterator<Entry<V>> iterator = segment.values().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        Entry<V> entry = iterator.next();
+        iterator.remove();
+        if (segment == mWindow) {
+            mWindowSize -= entry.mSize;
+        } else if (segment == mProbation) {
+            mProbationSize -= entry.mSize;
+        } else {
+            mProtectedSize -= entry.mSize;
+        }
+        mEvictionCount++;
+        return true;
+    }
+
+    private static class Entry<V> {
+        private final V mValue;
+        private final int mSize;
+        private long mLastRequest;
+
+        private Entry(@NonNull V value, int size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+}
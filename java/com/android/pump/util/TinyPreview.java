@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+// An image reduced to at most 4x4 RGB 565 pixels (at most 33 bytes). Scaled up with filtering it
+// makes a blurred stand-in for the image.
+@AnyThread
+final class TinyPreview {
+    private static final int MAX_SIDE = 4;
+    // Source pixels averaged per preview pixel, along each side.
+    private static final int SAMPLES = 8;
+
+    private TinyPreview() { }
+
+    static @NonNull byte[] encode(@NonNull Bitmap bitmap) {
+        int width = MAX_SIDE;
+        int height = MAX_SIDE;
+        if (bitmap.getWidth() > bitmap.getHeight()) {
+            height = clamp(Math.round((float) MAX_SIDE * bitmap.getHeight() / bitmap.getWidth()));
+        } else {
+            width = clamp(Math.round((float) MAX_SIDE * bitmap.getWidth() / bitmap.getHeight()));
+        }
+
+        int stride = width * SAMPLES;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, stride, height * SAMPLES, true);
+        int[] pixels = new int[stride * height * SAMPLES];
+        scaled.getPixels(pixels, 0, stride, 0, 0, stride, height * SAMPLES);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+
+        byte[] data = new byte[1 + width * height * 2];
+        data[0] = (byte) ((width - 1) << 4 | (height - 1));
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (int j = y * SAMPLES; j < (y + 1) * SAMPLES; ++j) {
+                    for (int i = x * SAMPLES; i < (x + 1) * SAMPLES; ++i) {
+                        int pixel = pixels[j * stride + i];
+                        red += Color.red(pixel);
+                        green += Color.green(pixel);
+                        blue += Color.blue(pixel);
+                    }
+                }
+                red /= SAMPLES * SAMPLES;
+                green /= SAMPLES * SAMPLES;
+                blue /= SAMPLES * SAMPLES;
+
+                int rgb565 = (red >> 3) << 11 | (green >> 2) << 5 | (blue >> 3);
+                int offset = 1 + (y * width + x) * 2;
+                data[offset] = (byte) (rgb565 >> 8);
+                data[offset + 1] = (byte) rgb565;
+            }
+        }
+        return data;
+    }
+
+    static @Nullable Bitmap decode(@NonNull byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        int width = (data[0] >> 4 & 0xf) + 1;
+        int height = (data[0] & 0xf) + 1;
+        if (data.length != 1 + width * height * 2) {
+            return null;
+        }
+
+        int[] colors = new int[width * height];
+        for (int i = 0; i < colors.length; ++i) {
+            int rgb565 = (data[1 + i * 2] & 0xff) << 8 | (data[2 + i * 2] & 0xff);
+            int red = rgb565 >> 11 & 0x1f;
+            int green = rgb565 >> 5 & 0x3f;
+            int blue = rgb565 & 0x1f;
+            colors[i] = Color.rgb(red << 3 | red >> 2, green << 2 | green >> 4, blue << 3 | blue >> 2);
+        }
+        return Bitmap.createBitmap(colors, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int clamp(int side) {
+        return Math.max(1, Math.min(side, MAX_SIDE));
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+// Turns a decoded bitmap into the one that is shown. Transformations run on the image loader's
+// executor and their results are cached, so a transformed image is only produced once.
+@WorkerThread
+public interface Transformation {
+    // Identifies the transformation and its parameters in cache keys.
+    @NonNull String getKey();
+
+    // May return the source itself, but must not modify or recycle it.
+    @NonNull Bitmap transform(@NonNull Bitmap source);
+}
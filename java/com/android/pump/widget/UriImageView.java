@@ -18,6 +18,7 @@ package com.android.pump.widget;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
@@ -30,11 +31,20 @@ import androidx.annotation.UiThread;
 
 import com.android.pump.util.Globals;
 import com.android.pump.util.ImageLoader;
+import com.android.pump.util.ImageRequest;
 import com.android.pump.util.Scheme;
+import com.android.pump.util.Transformation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 @UiThread
 public class UriImageView extends PlaceholderImageView {
     private Uri mUri;
+    private Bitmap.Config mDecodeConfig;
+    private int mTargetSize;
+    private List<Transformation> mTransformations = Collections.emptyList();
 
     public UriImageView(@NonNull Context context) {
         super(context);
@@ -49,6 +59,21 @@ public class UriImageView extends PlaceholderImageView {
         super(context, attrs, defStyleAttr);
     }
 
+    // Null, the default, lets the image loader pick a config for each image.
+    public void setDecodeConfig(@Nullable Bitmap.Config config) {
+        mDecodeConfig = config;
+    }
+
+    // The longest side, in pixels, images are shown at. Zero, the default, loads the original size.
+    public void setTargetSize(int size) {
+        mTargetSize = size;
+    }
+
+    // Applied by the image loader, which caches the result instead of the view redoing it.
+    public void setTransformations(@NonNull Transformation... transformations) {
+        mTransformations = Arrays.asList(transformations);
+    }
+
     @Override
     public void setImageResource(@DrawableRes int resId) {
         super.setImageResource(resId);
@@ -73,7 +98,9 @@ public class UriImageView extends PlaceholderImageView {
         if (uri == null) {
             return;
         }
-        if (Scheme.isFile(uri) || Scheme.isHttp(uri) || Scheme.isHttps(uri)) {
+        if (Scheme.isContent(uri) || Scheme.isFile(uri) || Scheme.isHttp(uri)
+                || Scheme.isHttps(uri) || Scheme.isMosaic(uri)) {
+            setPreview(uri);
             mUri = uri;
             loadImage();
         } else {
@@ -81,13 +108,50 @@ public class UriImageView extends PlaceholderImageView {
         }
     }
 
+    // Like setImageURI(), but lets the image loader serve the thumbnail of the given media item
+    // from its thumbnail atlas.
+    public void setThumbnailURI(@Nullable Uri uri, long mediaId) {
+        if (uri == null || !(Scheme.isContent(uri) || Scheme.isFile(uri))) {
+            setImageURI(uri);
+            return;
+        }
+        setImageDrawable(null);
+        setPreview(uri);
+        mUri = uri;
+        ImageLoader imageLoader = Globals.getImageLoader(getContext());
+        imageLoader.loadImage(newRequestBuilder()
+                .setMediaId(mediaId)
+                .build(), this::onImageLoaded);
+    }
+
+    private void setPreview(@NonNull Uri uri) {
+        Bitmap preview = Globals.getImageLoader(getContext()).getPreview(uri);
+        if (preview != null) {
+            BitmapDrawable drawable = new BitmapDrawable(getResources(), preview);
+            drawable.setFilterBitmap(true);
+            setImageDrawable(drawable);
+        }
+    }
+
     private void loadImage() {
         ImageLoader imageLoader = Globals.getImageLoader(getContext());
-        imageLoader.loadImage(mUri, (loadedUri, bitmap) -> {
-            if (mUri != null && mUri.equals(loadedUri)) {
-                setImageBitmap(bitmap);
-                mUri = loadedUri;
-            }
-        });
+        imageLoader.loadImage(newRequestBuilder().build(), this::onImageLoaded);
+    }
+
+    private @NonNull ImageRequest.Builder newRequestBuilder() {
+        ImageRequest.Builder builder = new ImageRequest.Builder(mUri)
+                .setConfig(mDecodeConfig)
+                .setTargetSize(mTargetSize);
+        for (Transformation transformation : mTransformations) {
+            builder.addTransformation(transformation);
+        }
+        return builder;
+    }
+
+    private void onImageLoaded(@NonNull Uri loadedUri, @Nullable Bitmap bitmap) {
+        if (mUri != null && mUri.equals(loadedUri)) {
+            setImageBitmap(bitmap);
+            mUri = loadedUri;
+        }
     }
 }
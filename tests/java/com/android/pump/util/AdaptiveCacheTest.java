@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+public class AdaptiveCacheTest {
+    // A sixteenth, an eighth and a quarter of it are the minimum, initial and maximum sizes
+    private static final long MEMORY = 1600;
+    private static final int MIN_SIZE = 100;
+    private static final int INITIAL_SIZE = 200;
+    private static final int ENTRY_SIZE = 5;
+
+    private final AdaptiveCache<Integer, Integer> mCache = new AdaptiveCache<Integer, Integer>(
+            MEMORY) {
+        @Override
+        protected int sizeOf(@NonNull Integer key, @NonNull Integer value) {
+            return value;
+        }
+    };
+
+    // Replays the levels GlobalsApplication.onTrimMemory() passes on, in the order a process
+    // sees them as it goes to the background and memory runs out.
+    @Test
+    public void trimReplay_dropsMemoryAtEachLevel() {
+        fill();
+        assertEquals(INITIAL_SIZE, mCache.size());
+
+        assertFalse(mCache.trim(TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(INITIAL_SIZE, mCache.size());
+
+        assertFalse(mCache.trim(TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(INITIAL_SIZE / 4, mCache.size());
+        assertEquals(INITIAL_SIZE, mCache.maxSize());
+
+        assertFalse(mCache.trim(TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(INITIAL_SIZE / 4, mCache.size());
+
+        assertFalse(mCache.trim(TRIM_MEMORY_BACKGROUND));
+        assertEquals(INITIAL_SIZE / 4, mCache.size());
+
+        assertTrue(mCache.trim(TRIM_MEMORY_MODERATE));
+        assertEquals(0, mCache.size());
+        assertEquals(MIN_SIZE, mCache.maxSize());
+    }
+
+    @Test
+    public void trim_clearsWhenCriticalOrComplete() {
+        fill();
+        assertTrue(mCache.trim(TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(0, mCache.size());
+        assertEquals(MIN_SIZE, mCache.maxSize());
+
+        fill();
+        assertEquals(MIN_SIZE, mCache.size());
+        assertTrue(mCache.trim(TRIM_MEMORY_COMPLETE));
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void trim_keepsMostRecentlyRequested() {
+        fill();
+        int last = INITIAL_SIZE / ENTRY_SIZE;
+        for (int key = last; key < last + 3; ++key) {
+            mCache.put(key, ENTRY_SIZE);
+            mCache.get(key);
+        }
+
+        mCache.trim(TRIM_MEMORY_UI_HIDDEN);
+
+        for (int key = last; key < last + 3; ++key) {
+            assertTrue(mCache.contains(key));
+        }
+    }
+
+    // Puts more entries than fit, then requests the first ten of them often.
+    private void fill() {
+        for (int key = 0; key < 2 * INITIAL_SIZE / ENTRY_SIZE; ++key) {
+            mCache.put(key, ENTRY_SIZE);
+        }
+        for (int i = 0; i < 5; ++i) {
+            for (int key = 0; key < 10; ++key) {
+                mCache.get(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Replays scroll traces against the bitmap cache policy and the plain LRU it replaced, with the
+// same budget, and compares their hit ratios.
+public class CacheTraceReplayTest {
+    private static final int MAX_SIZE = 100;
+    // Keys below this are posters, the others thumbnails
+    private static final int THUMBNAIL_KEYS = 10000;
+    private static final int POSTER_SIZE = 4;
+    private static final int THUMBNAIL_SIZE = 1;
+    private static final int POSTER_COUNT = 20;
+    private static final int FLING_LENGTH = 5000;
+    private static final int SESSIONS = 5;
+    // Most posters survive the flings under W-TinyLFU, while LRU loses them every time
+    private static final float MIN_POSTER_GAIN = 0.1f;
+    private static final float DELTA = 0.001f;
+
+    // Browsing the Movies tab, then flinging through the Other tab, and back again
+    @Test
+    public void moviesAndFling_tinyLfuKeepsPosters() {
+        List<Integer> trace = new ArrayList<>();
+        for (int session = 0; session < SESSIONS; ++session) {
+            browseMovies(trace);
+            for (int i = 0; i < FLING_LENGTH; ++i) {
+                trace.add(THUMBNAIL_KEYS + session * FLING_LENGTH + i);
+            }
+        }
+
+        Result tinyLfu = replay(trace, new TinyLfu());
+        Result lru = replay(trace, new Lru());
+        String results = "W-TinyLFU " + tinyLfu + ", LRU " + lru;
+
+        assertTrue(results,
+                tinyLfu.getPosterHitRatio() > lru.getPosterHitRatio() + MIN_POSTER_GAIN);
+        assertTrue(results, tinyLfu.getHitRatio() > lru.getHitRatio());
+    }
+
+    // Only browsing, where both should keep every poster once seen
+    @Test
+    public void moviesOnly_tinyLfuMatchesLru() {
+        List<Integer> trace = new ArrayList<>();
+        for (int session = 0; session < SESSIONS; ++session) {
+            browseMovies(trace);
+        }
+
+        Result tinyLfu = replay(trace, new TinyLfu());
+        Result lru = replay(trace, new Lru());
+        assertEquals(lru.getHitRatio(), tinyLfu.getHitRatio(), DELTA);
+    }
+
+    // Scrolls down the posters and back up, binding each as it comes into view.
+    private static void browseMovies(@NonNull List<Integer> trace) {
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int key = 0; key < POSTER_COUNT; ++key) {
+                trace.add(key);
+            }
+            for (int key = POSTER_COUNT - 1; key >= 0; --key) {
+                trace.add(key);
+            }
+        }
+    }
+
+    // Requests every key, and puts the ones missing, as ImageLoader does.
+    private static @NonNull Result replay(@NonNull List<Integer> trace, @NonNull Cache cache) {
+        Result result = new Result();
+        for (int key : trace) {
+            boolean hit = cache.get(key);
+            if (!hit) {
+                cache.put(key, key < THUMBNAIL_KEYS ? POSTER_SIZE : THUMBNAIL_SIZE);
+            }
+            result.add(key < THUMBNAIL_KEYS, hit);
+        }
+        return result;
+    }
+
+    private interface Cache {
+        boolean get(int key);
+        void put(int key, int size);
+    }
+
+    private static class TinyLfu implements Cache {
+        private final TinyLfuCache<Integer, Integer> mCache =
+                new TinyLfuCache<Integer, Integer>(MAX_SIZE) {
+            @Override
+            protected int sizeOf(@NonNull Integer key, @NonNull Integer size) {
+                return size;
+            }
+        };
+
+        @Override
+        public boolean get(int key) {
+            return mCache.get(key) != null;
+        }
+
+        @Override
+        public void put(int key, int size) {
+            mCache.put(key, size);
+        }
+    }
+
+    private static class Lru implements Cache {
+        private final LruCache<Integer, Integer> mCache = new LruCache<Integer, Integer>(MAX_SIZE) {
+            @Override
+            protected int sizeOf(@NonNull Integer key, @NonNull Integer size) {
+                return size;
+            }
+        };
+
+        @Override
+        public boolean get(int key) {
+            return mCache.get(key) != null;
+        }
+
+        @Override
+        public void put(int key, int size) {
+            mCache.put(key, size);
+        }
+    }
+
+    private static class Result {
+        private int mRequests;
+        private int mHits;
+        private int mPosterRequests;
+        private int mPosterHits;
+
+        private void add(boolean poster, boolean hit) {
+            ++mRequests;
+            if (hit) {
+                ++mHits;
+            }
+            if (poster) {
+                ++mPosterRequests;
+                if (hit) {
+                    ++mPosterHits;
+                }
+            }
+        }
+
+        private float getHitRatio() {
+            return (float) mHits / mRequests;
+        }
+
+        private float getPosterHitRatio() {
+            return (float) mPosterHits / mPosterRequests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f (posters %.3f)", getHitRatio(), getPosterHitRatio());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Runs Http and its HttpCache against a local stand-in for a server.
+public class HttpCacheTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 18 Feb 2019 12:00:00 GMT";
+    private static final byte[] BODY = "{\"title\": \"Metropolis\"}".getBytes(
+            StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private HttpCache mCache;
+    private String mUri;
+    // What the server answers with, and what it was asked
+    private volatile String mCacheControl;
+    private volatile String mExpires;
+    private volatile String mETag;
+    private volatile String mLastModified;
+    private volatile byte[] mBody = BODY;
+    private volatile int mRequestCount;
+    private volatile String mIfNoneMatch;
+    private volatile String mIfModifiedSince;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+        mUri = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/movie";
+        mCache = new HttpCache(mFolder.newFolder("http"), 1024 * 1024);
+        Http.setCache(mCache);
+    }
+
+    @After
+    public void tearDown() {
+        Http.setCache(null);
+        mServer.stop(0);
+    }
+
+    @Test
+    public void maxAge_servedWithoutRequest() throws IOException {
+        mCacheControl = "public, max-age=3600";
+
+        assertArrayEquals(BODY, Http.get(mUri));
+        assertArrayEquals(BODY, Http.get(mUri));
+
+        assertEquals(1, mRequestCount);
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void expires_servedWithoutRequest() throws IOException {
+        mExpires = "Thu, 01 Jan 2099 00:00:00 GMT";
+
+        Http.get(mUri);
+        assertArrayEquals(BODY, Http.get(mUri));
+
+        assertEquals(1, mRequestCount);
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void stale_revalidatedWithETag() throws IOException {
+        mCacheControl = "no-cache";
+        mETag = ETAG;
+
+        Http.get(mUri);
+        assertArrayEquals(BODY, Http.get(mUri));
+
+        assertEquals(2, mRequestCount);
+        assertEquals(ETAG, mIfNoneMatch);
+        assertEquals(1, mCache.getRevalidateCount());
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    @Test
+    public void stale_revalidatedWithLastModified() throws IOException {
+        mCacheControl = "max-age=0";
+        mLastModified = LAST_MODIFIED;
+
+        Http.get(mUri);
+        assertArrayEquals(BODY, Http.get(mUri));
+
+        assertEquals(LAST_MODIFIED, mIfModifiedSince);
+        assertNull(mIfNoneMatch);
+        assertEquals(1, mCache.getRevalidateCount());
+    }
+
+    @Test
+    public void changed_replacesCachedBody() throws IOException {
+        mCacheControl = "no-cache";
+        mETag = ETAG;
+        Http.get(mUri);
+
+        byte[] changed = "{\"title\": \"Nosferatu\"}".getBytes(StandardCharsets.UTF_8);
+        mETag = "\"v2\"";
+        mBody = changed;
+        assertArrayEquals(changed, Http.get(mUri));
+        assertArrayEquals(changed, Http.get(mUri));
+
+        assertEquals("\"v2\"", mIfNoneMatch);
+        assertEquals(2, mCache.getMissCount());
+        assertEquals(1, mCache.getRevalidateCount());
+    }
+
+    @Test
+    public void noStore_notCached() throws IOException {
+        mCacheControl = "no-store";
+        mETag = ETAG;
+
+        Http.get(mUri);
+        Http.get(mUri);
+
+        assertEquals(2, mRequestCount);
+        assertNull(mIfNoneMatch);
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void longUri_cached() throws IOException {
+        mCacheControl = "max-age=3600";
+        StringBuilder uri = new StringBuilder(mUri).append("?q=");
+        while (uri.length() < 70 * 1024) {
+            uri.append("metropolis");
+        }
+
+        Http.get(uri.toString());
+        assertArrayEquals(BODY, Http.get(uri.toString()));
+
+        assertEquals(1, mRequestCount);
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void streamRead_cachedIfReadToEnd() throws IOException {
+        mCacheControl = "max-age=3600";
+
+        Http.get(mUri, inputStream -> IoUtils.readFromStream(inputStream));
+        assertArrayEquals(BODY, Http.get(mUri));
+
+        assertEquals(1, mRequestCount);
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void streamRead_notCachedIfStoppedEarly() throws IOException {
+        mCacheControl = "max-age=3600";
+        mBody = new byte[64 * 1024];
+
+        Http.get(mUri, inputStream -> inputStream.read());
+        Http.get(mUri);
+
+        assertEquals(2, mRequestCount);
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    // Answers 304 when a validator matches, else the body with the configured headers.
+    private void handle(HttpExchange exchange) throws IOException {
+        ++mRequestCount;
+        mIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        mIfModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        setHeader(exchange, "Cache-Control", mCacheControl);
+        setHeader(exchange, "Expires", mExpires);
+        setHeader(exchange, "ETag", mETag);
+        setHeader(exchange, "Last-Modified", mLastModified);
+        boolean notModified = mIfNoneMatch != null
+                ? mIfNoneMatch.equals(mETag)
+                : mIfModifiedSince != null && mIfModifiedSince.equals(mLastModified);
+        if (notModified) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            byte[] body = mBody;
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private static void setHeader(HttpExchange exchange, String name, String value) {
+        if (value != null) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+    }
+}
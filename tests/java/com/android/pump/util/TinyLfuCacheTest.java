@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pump.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+    private static final int MAX_SIZE = 100;
+    private static final int ENTRY_SIZE = 5;
+
+    private final TinyLfuCache<Integer, Integer> mCache = new TinyLfuCache<Integer, Integer>(
+            MAX_SIZE) {
+        @Override
+        protected int sizeOf(@NonNull Integer key, @NonNull Integer value) {
+            return value;
+        }
+    };
+
+    @Test
+    public void trimToSize_keepsMostRecentlyRequested() {
+        fill();
+        // The popular entries are in the protected segment, what is on screen in the window
+        for (int key = 100; key < 103; ++key) {
+            mCache.put(key, ENTRY_SIZE);
+            mCache.get(key);
+        }
+
+        mCache.trimToSize(3 * ENTRY_SIZE);
+
+        assertEquals(3 * ENTRY_SIZE, mCache.size());
+        for (int key = 100; key < 103; ++key) {
+            assertNotNull(mCache.get(key));
+        }
+    }
+
+    // Puts entries that fill the cache and requests the first ten of them often.
+    private void fill() {
+        for (int key = 0; key < MAX_SIZE / ENTRY_SIZE; ++key) {
+            mCache.put(key, ENTRY_SIZE);
+        }
+        for (int i = 0; i < 5; ++i) {
+            for (int key = 0; key < 10; ++key) {
+                mCache.get(key);
+            }
+        }
+    }
+}